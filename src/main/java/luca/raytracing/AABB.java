@@ -43,20 +43,47 @@ public class AABB extends WorldObject {
 
     @Override
     public Optional<Collision> Collision(Ray ray) {
-        // Slab test:
-        double tx1 = (x.min - ray.getOrigin().getX()) * ray.getDirectionInv().getX();
-        double tx2 = (x.max - ray.getOrigin().getX()) * ray.getDirectionInv().getX();
-        double tmin = Math.min(tx1, tx2);
-        double tmax = Math.max(tx1, tx2);
-        double ty1 = (y.min - ray.getOrigin().getY()) * ray.getDirectionInv().getY();
-        double ty2 = (y.max - ray.getOrigin().getY()) * ray.getDirectionInv().getY();
-        tmin = Math.max(tmin, Math.min(ty1, ty2));
-        tmax = Math.min(tmax, Math.max(ty1, ty2));
-
-        if (tmax >= tmin) return Optional.of(new Collision());
+        if (Hit(ray)) return Optional.of(new Collision());
         else return Optional.empty();
     }
 
+    // Allocation free slab test against the part of the ray in front of its origin
+    public boolean Hit(Ray ray) {
+        return Entry(ray, 0, Double.POSITIVE_INFINITY) != Double.POSITIVE_INFINITY;
+    }
+
+    // Distance at which the ray enters the box within [tMin, tMax], infinity if it misses
+    public double Entry(Ray ray, double tMin, double tMax) {
+        return SlabEntry(x.min, y.min, z.min, x.max, y.max, z.max, ray, tMin, tMax);
+    }
+
+    // Slab test over all three axes using the ray's precomputed inverse direction.
+    // A zero direction component gives an infinite inverse, if the origin also lies on that
+    // slab's plane the product is NaN. The comparisons are ordered so NaN never replaces the
+    // current interval, which treats that axis as unconstrained instead of a miss.
+    static double SlabEntry(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                            Ray ray, double tMin, double tMax) {
+        double t1 = (minX - ray.ox) * ray.ix;
+        double t2 = (maxX - ray.ox) * ray.ix;
+        double near = t1 < t2 ? t1 : t2;
+        double far = t1 < t2 ? t2 : t1;
+        tMin = near > tMin ? near : tMin;
+        tMax = far < tMax ? far : tMax;
+        t1 = (minY - ray.oy) * ray.iy;
+        t2 = (maxY - ray.oy) * ray.iy;
+        near = t1 < t2 ? t1 : t2;
+        far = t1 < t2 ? t2 : t1;
+        tMin = near > tMin ? near : tMin;
+        tMax = far < tMax ? far : tMax;
+        t1 = (minZ - ray.oz) * ray.iz;
+        t2 = (maxZ - ray.oz) * ray.iz;
+        near = t1 < t2 ? t1 : t2;
+        far = t1 < t2 ? t2 : t1;
+        tMin = near > tMin ? near : tMin;
+        tMax = far < tMax ? far : tMax;
+        return tMin <= tMax ? tMin : Double.POSITIVE_INFINITY;
+    }
+
     public double AreaInAxis(int axis) {
         int a1 = 0;
         int a2 = 1;
@@ -1,16 +1,22 @@
 package luca.raytracing;
 
+import java.io.IOException;
+
 public class App {
     public static void main(String[] args) {
         Controller controller = new Controller();
         try {
+            // Optional argument: checkpoint file to resume from
+            if (args.length > 0) {
+                controller.resumeFrom(args[0]);
+            }
             final long startTime = System.currentTimeMillis();
             System.out.println("Path Tracing");
             controller.startTracing();
             final long endTime = System.currentTimeMillis();
             System.out.printf("Execution Time: %ds\n", (endTime - startTime) / 1000);
-        } catch (InterruptedException e) {
+        } catch (InterruptedException | IOException e) {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package luca.raytracing;
+
+// Node of a BVH under construction. Builders produce these and FlatBVH lays them out for rendering,
+// leaves cover [first, first + count) of the builder's primitive order.
+class BVHBuildNode {
+    // min x, y, z then max x, y, z
+    final double[] bounds;
+    BVHBuildNode left, right;
+    int axis;
+    int first, count;
+
+    BVHBuildNode(double[] bounds) {
+        this.bounds = bounds;
+    }
+
+    static BVHBuildNode Leaf(double[] bounds, int first, int count) {
+        BVHBuildNode node = new BVHBuildNode(bounds);
+        node.first = first;
+        node.count = count;
+        return node;
+    }
+
+    static BVHBuildNode Interior(double[] bounds, int axis, BVHBuildNode left, BVHBuildNode right) {
+        BVHBuildNode node = new BVHBuildNode(bounds);
+        node.axis = axis;
+        node.left = left;
+        node.right = right;
+        return node;
+    }
+
+    boolean IsLeaf() {
+        return left == null;
+    }
+
+    static double[] EmptyBounds() {
+        double[] bounds = new double[6];
+        SetEmpty(bounds, 0);
+        return bounds;
+    }
+
+    static void SetEmpty(double[] bounds, int b) {
+        for (int a = 0; a < 3; a++) {
+            bounds[b + a] = Double.POSITIVE_INFINITY;
+            bounds[b + a + 3] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    // Grow bounds (at offset b) to include the box at offset o of other
+    static void Grow(double[] bounds, int b, double[] other, int o) {
+        for (int a = 0; a < 3; a++) {
+            bounds[b + a] = Math.min(bounds[b + a], other[o + a]);
+            bounds[b + a + 3] = Math.max(bounds[b + a + 3], other[o + a + 3]);
+        }
+    }
+
+    static double SurfaceArea(double[] bounds, int b) {
+        double x = bounds[b + 3] - bounds[b];
+        double y = bounds[b + 4] - bounds[b + 1];
+        double z = bounds[b + 5] - bounds[b + 2];
+        if (x < 0 || y < 0 || z < 0) return 0;
+        return 2 * (x * y + y * z + z * x);
+    }
+}
@@ -0,0 +1,49 @@
+package luca.raytracing;
+
+// Builds a BVH over a primitive set as BVHBuildNodes, leaves refer to ranges of Order()
+public interface BVHBuilder {
+    enum Type {
+        SAH,
+        LBVH,
+        // SAH with spatial splits, for scenes of long thin triangles
+        SBVH
+    }
+
+    // Builder choice and its parameters, everything a build depends on besides the primitives
+    final class Settings {
+        final Type type;
+        // SBVH only: extra references spatial splits may add, as a fraction of the primitive count
+        final double duplicationBudget;
+        Settings(Type type, double duplicationBudget) {
+            this.type = type;
+            this.duplicationBudget = duplicationBudget;
+        }
+        Settings(Type type) {
+            this(type, SpatialSplitBVHBuilder.DEFAULT_DUPLICATION_BUDGET);
+        }
+
+        @Override
+        public String toString() {
+            return type.toString();
+        }
+    }
+
+    BVHBuildNode Build();
+    int[] Order();
+
+    static BVHBuilder Create(Type type, PrimitiveSet set) {
+        return Create(new Settings(type), set);
+    }
+
+    static BVHBuilder Create(Settings settings, PrimitiveSet set) {
+        switch (settings.type) {
+            case LBVH:
+                return new LBVHBuilder(set);
+            case SBVH:
+                return new SpatialSplitBVHBuilder(set, settings.duplicationBudget);
+            case SAH:
+            default:
+                return new ParallelBVHBuilder(set);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package luca.raytracing;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// On-disk cache of built BVHs. Files are named by a hash of everything the build depends on
+// (builder settings and the geometry of every primitive in index order), so a warm start with an
+// unchanged scene maps the file and skips the build. Layout: magic, version, key, FlatBVH data.
+public class BVHCache {
+    private static final int MAGIC = 0x52544256; // "RTBV"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+    private final Path directory;
+
+    BVHCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // Loads the BVH for this scene from the cache, or builds it and stores it for next time
+    public FlatBVH LoadOrBuild(BVHBuilder.Settings settings, PrimitiveSet set) {
+        long key = Key(settings, set);
+        Path path = directory.resolve(String.format("BVH-%016x.cache", key));
+        if (Files.exists(path)) {
+            try {
+                return Load(path, key, set);
+            } catch (IOException | RuntimeException e) {
+                // A damaged file is only a missed cache, the tree is rebuilt and the file replaced
+                System.out.printf("ERROR Reading BVH Cache: %s\n", e);
+            }
+        }
+        BVHBuilder builder = BVHBuilder.Create(settings, set);
+        FlatBVH bvh = new FlatBVH(builder.Build(), builder.Order(), set);
+        try {
+            Save(path, key, bvh);
+        } catch (IOException e) {
+            System.out.printf("ERROR Writing BVH Cache: %s\n", e.getMessage());
+        }
+        return bvh;
+    }
+
+    public static long Key(BVHBuilder.Settings settings, PrimitiveSet set) {
+        long h = Mix(VERSION, settings.type.ordinal());
+        h = Mix(h, Double.doubleToLongBits(settings.duplicationBudget));
+        h = Mix(h, set.Size());
+        for (int i = 0; i < set.Size(); i++) {
+            h = set.Hash(i, h);
+        }
+        return h;
+    }
+
+    static long Mix(long h, double value) {
+        return Mix(h, Double.doubleToLongBits(value));
+    }
+
+    static long Mix(long h, long value) {
+        h = (h ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 31);
+    }
+
+    private static void Save(Path path, long key, FlatBVH bvh) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + bvh.ByteSize());
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(key);
+            bvh.WriteTo(buffer);
+            buffer.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static FlatBVH Load(Path path, long key, PrimitiveSet set) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) throw new IOException(path + " is not a BVH cache file");
+            if (buffer.getInt() != VERSION) throw new IOException(path + " has an unsupported version");
+            if (buffer.getLong() != key) throw new IOException(path + " belongs to a different scene");
+            return FlatBVH.ReadFrom(buffer, set);
+        }
+    }
+}
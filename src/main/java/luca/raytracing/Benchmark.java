@@ -0,0 +1,50 @@
+package luca.raytracing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// Measures closest-hit queries against the Controller scene: time and heap allocation per ray.
+// Allocation is read from the HotSpot per-thread counter, so it reports -1 on other JVMs.
+// Usage: Benchmark [rays per round] [rounds]
+public class Benchmark {
+    public static void main(String[] args) {
+        int raysPerRound = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Controller controller = new Controller();
+        RayTracer tracer = controller.getTracer();
+        Camera camera = controller.getCamera();
+
+        // Build the rays up front so only the intersection work is measured
+        int side = (int) Math.ceil(Math.sqrt(raysPerRound));
+        Ray[] rays = new Ray[side * side];
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                double u = 2 * ((x + 0.5) / side) - 1;
+                double v = 1 - 2 * ((y + 0.5) / side);
+                rays[y * side + x] = camera.transformRay(u, v);
+            }
+        }
+
+        Hit hit = new Hit();
+        for (int r = 0; r < rounds; r++) {
+            long bytesBefore = AllocatedBytes();
+            long start = System.nanoTime();
+            int hits = 0;
+            for (Ray ray : rays) {
+                if (tracer.Intersect(ray, hit)) hits++;
+            }
+            long duration = System.nanoTime() - start;
+            long bytes = AllocatedBytes() - bytesBefore;
+            System.out.printf("Round %d: %.1f ns/ray, %.1f bytes/ray, %d/%d hits\n", r + 1,
+                    (double) duration / rays.length, bytesBefore < 0 ? -1.0 : (double) bytes / rays.length, hits, rays.length);
+        }
+    }
+
+    private static long AllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,116 @@
+package luca.raytracing;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+// Periodically saves the accumulation buffer to a memory-mapped file so a render can be resumed.
+// Saves work from a framebuffer snapshot on a background thread. The snapshot is copied tile by
+// tile, so a worker only waits while its own tile is being copied.
+// Layout: header (magic, version, width, height, completed samples, seed), RGB sums, sample counts.
+public class Checkpoint {
+    private static final int MAGIC = 0x5254434B; // "RTCK"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final Path path;
+    private final long intervalSeconds;
+    private final ExecutorService writer;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private long nextTime;
+
+    Checkpoint(String path, long intervalSeconds) {
+        this.path = Paths.get(path);
+        this.intervalSeconds = intervalSeconds;
+        this.nextTime = System.currentTimeMillis() + intervalSeconds * 1000;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Saves a checkpoint if one is due and the previous save has finished. snapshot is only taken
+    // when a save is due, its sample counts must match its sums as resume trusts them.
+    public void Poll(int completedSamples, long seed, Supplier<FrameBuffer> snapshot) {
+        long now = System.currentTimeMillis();
+        if (intervalSeconds <= 0 || now < nextTime) return;
+        if (!writing.compareAndSet(false, true)) return;
+        nextTime = now + intervalSeconds * 1000;
+        FrameBuffer frameBuffer = snapshot.get();
+        writer.execute(() -> {
+            try {
+                Save(path, completedSamples, seed, frameBuffer);
+            } catch (IOException e) {
+                System.out.printf("ERROR Writing Checkpoint: %s\n", e.getMessage());
+            } finally {
+                writing.set(false);
+            }
+        });
+    }
+
+    // Waits for an in-progress save to finish
+    public void Close() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    // Written to a temporary file first so a crash mid-save never corrupts the previous checkpoint
+    public static void Save(Path path, int completedSamples, long seed, FrameBuffer frameBuffer) throws IOException {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + FrameBuffer.ByteSize(width, height));
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(width);
+            buffer.putInt(height);
+            buffer.putInt(completedSamples);
+            buffer.putLong(seed);
+            frameBuffer.WriteTo(buffer);
+            buffer.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static State Load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException(path + " is truncated");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) throw new IOException(path + " is not a checkpoint file");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException(String.format("Unsupported checkpoint version %d", version));
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int completedSamples = buffer.getInt();
+            long seed = buffer.getLong();
+            if (channel.size() != HEADER_BYTES + FrameBuffer.ByteSize(width, height))
+                throw new IOException(path + " is truncated");
+            return new State(FrameBuffer.ReadFrom(buffer, width, height), completedSamples, seed);
+        }
+    }
+
+    public static class State {
+        final FrameBuffer frameBuffer;
+        final int completedSamples;
+        final long seed;
+        State(FrameBuffer frameBuffer, int completedSamples, long seed) {
+            this.frameBuffer = frameBuffer;
+            this.completedSamples = completedSamples;
+            this.seed = seed;
+        }
+    }
+}
@@ -1,12 +1,9 @@
 package luca.raytracing;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class Controller {
     private Camera camera;
@@ -14,6 +11,33 @@ public class Controller {
     private final int HEIGHT = 600;
     private final int WIDTH = 1000;
     private final int SAMPLES = 30000;
+    private final int TILE_SIZE = 32;
+    private final int SAMPLES_PER_CLAIM = 8;
+    // Camera rays are traced in square packets of this many pixels a side
+    private final int PACKET_SIZE = 8;
+    // Trace each tile chunk bounce by bounce with WavefrontIntegrator instead of path by path
+    private final boolean WAVEFRONT = false;
+    // Bounces after which a path is ended whatever its throughput
+    private final int MAX_DEPTH = 50;
+    private final String OUTPUT_DIRECTORY = "Renders";
+    private final int OUTPUT_INTERVAL = 1000;
+    private final long OUTPUT_INTERVAL_SECONDS = 0;
+    private final long PROGRESS_INTERVAL_MS = 1000;
+    private final BVHBuilder.Type BVH_BUILDER = BVHBuilder.Type.SAH;
+    // Extra references the SBVH builder may create, as a fraction of the primitive count
+    private final double SBVH_DUPLICATION_BUDGET = 0.3;
+    private final String BVH_CACHE_DIRECTORY = "Cache";
+    // Traverse a 4-wide copy of the BVH, which only pays off with the Vector API slab test
+    // (built with -P vector and run with --add-modules jdk.incubator.vector)
+    private final boolean WIDE_BVH = WideBVH.Vectorised();
+    private final String CHECKPOINT_PATH = "Renders/Render.ckpt";
+    private final long CHECKPOINT_INTERVAL_SECONDS = 300;
+    // Pins the render seed so a render can be reproduced, set with -Dseed=<n>.
+    // A fresh seed is drawn from the clock when it is unset.
+    private final Long SEED = Long.getLong("seed");
+    private FrameBuffer frameBuffer;
+    private int firstSample = 0;
+    private long seed = SEED != null ? SEED : System.nanoTime();
     private static final Map<String, Material> materials = MaterialMap();
     private static Map<String, Material> MaterialMap() {
         Map<String, Material> materialMap = new HashMap<>();
@@ -33,6 +57,7 @@ public class Controller {
     public Controller() {
         List<MeshObject> meshes = new ArrayList<>();
         List<Sphere> spheres = new ArrayList<>();
+        List<Instance> instances = new ArrayList<>();
 
         Scene scene = Scene.TRIANGLES;
         switch (scene) {
@@ -65,57 +90,39 @@ public class Controller {
                 topLight.SetMaterial(materials.get("WHITE-EMITTER"));
                 meshes.add(topLight);
                 //world.add(new TriCube(materials.get("MIRROR"), 2, new Point3D(-2, 1, 10), new Point3D(0, 0, 0)));
-                meshes.add(new TriCube(materials.get("WHITE"), 2, new Point3D(-1, 1, 10), new Point3D(0, Math.PI / 8, 0)));
+                // Cubes share one unit mesh, each placement only stores its transform and material
+                InstancedMesh cube = new InstancedMesh(new TriCube(materials.get("WHITE"), 1, Point3D.ZERO, Point3D.ZERO).HittableMesh());
+                instances.add(new Instance(cube, materials.get("WHITE"), new Point3D(-1, 1, 10), new Point3D(0, Math.PI / 8, 0), 2));
                 spheres.add(new Sphere(materials.get("DIELECTRIC"), new Point3D(1.3, 0.7, 6), 0.5));
-                meshes.add(new TriCube(materials.get("MIRROR"), 2, new Point3D(3, 1, 11), new Point3D(0, 0, 0)));
+                instances.add(new Instance(cube, materials.get("MIRROR"), new Point3D(3, 1, 11), new Point3D(0, 0, 0), 2));
                 // Camera
                 this.camera = new Camera(new Point3D(0, 3, 1), 0 * Math.PI / 180, 0 * Math.PI / 180, 80 * Math.PI / 180);
                 break;
             }
         }
-        tracer = new RayTracer(meshes, spheres);
+        tracer = new RayTracer(meshes, spheres, instances,
+                new BVHBuilder.Settings(BVH_BUILDER, SBVH_DUPLICATION_BUDGET), new BVHCache(Paths.get(BVH_CACHE_DIRECTORY)),
+                WIDE_BVH, MAX_DEPTH);
     }
 
-    private void OutputBitmap(int width, int height, int samples, Color[][] bitmap) {
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                bufferedImage.setRGB(x, y, ColorToIntRGB(bitmap[y][x]));
-            }
-        }
-        try {
-            String filename;
-            filename = String.format("Renders/Render-(%dx%dx%d).png", width, height, samples);
-            File outputFile = new File(filename);
-            ImageIO.write(bufferedImage, "png", outputFile);
-            System.out.printf("Image written to %s\n", filename);
-        } catch (IOException e) {
-            System.out.printf("ERROR Writing to File: %s\n", e.getMessage());
-        }
-    }
-    private int ColorToIntRGB(Color c) {
-        int rgba = c.hashCode();
-        int a = rgba & 0x000000FF;
-        return ((rgba >> 8) & 0x00FFFFFF) + (a << 24);
+    RayTracer getTracer() {
+        return tracer;
     }
-    private Color rollingColorAverage(Point3D newCol, Color average, int n) {
-        if (n == 0) {
-            average = new Color(0, 0, 0, 0);
-        }
-        Point3D pointAverage;
-        n += 1;
-        Point3D prevAverage = new Point3D(average.getRed(), average.getGreen(), average.getBlue());
-        pointAverage = prevAverage.add((newCol.subtract(prevAverage)).multiply(1.0 / n));
-        return new Color(Math.min(pointAverage.getX(), 1) , Math.min(pointAverage.getY(), 1), Math.min(pointAverage.getZ(), 1), 1);
+    Camera getCamera() {
+        return camera;
     }
-    public Color[][] initBitmap(int height, int width) {
-        Color[][] b = new Color[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int f = 0; f < width; f++) {
-                b[i][f] = new Color(0, 0, 0, 1);
-            }
+
+    // Continue from a checkpoint written by a previous run
+    public void resumeFrom(String path) throws IOException {
+        Checkpoint.State state = Checkpoint.Load(Paths.get(path));
+        if (state.frameBuffer.getWidth() != WIDTH || state.frameBuffer.getHeight() != HEIGHT) {
+            throw new IOException(String.format("Checkpoint is %dx%d but the render is %dx%d",
+                    state.frameBuffer.getWidth(), state.frameBuffer.getHeight(), WIDTH, HEIGHT));
         }
-        return b;
+        this.frameBuffer = state.frameBuffer;
+        this.firstSample = state.completedSamples;
+        this.seed = state.seed;
+        System.out.printf("Resuming from %s at %d samples\n", path, firstSample);
     }
     public void startTracing() throws InterruptedException {
         double uScale = 1;
@@ -125,105 +132,87 @@ public class Controller {
         if (WIDTH > HEIGHT) uScale = (double)WIDTH / HEIGHT;
         else if (HEIGHT > WIDTH) vScale = (double)HEIGHT / WIDTH;
 
-        Color[][] bitmap = initBitmap(HEIGHT, WIDTH);
+        if (frameBuffer == null) frameBuffer = new FrameBuffer(WIDTH, HEIGHT);
+        System.out.printf("Seed: %d\n", seed);
         // Startup Threads:
-        final int threads = 4;
-        final Semaphore full = new Semaphore(0);
-        final Semaphore empty = new Semaphore(WIDTH);
-        final CountDownLatch finished = new CountDownLatch(WIDTH * HEIGHT);
-        Object queueMutex = new Object();
-        final Object bitmapMutex = new Object();
-        final Deque<int[]> workQueue = new ArrayDeque<>();
-        for (int i = 0; i < threads; i++) {
-            Thread t = new Thread(new Worker(full, empty, finished, workQueue, queueMutex, bitmapMutex, uScale, vScale, bitmap));
-            t.start();
-        }
-        long delta = 0;
-        // Producer Loop:
-        for (int s = 0; s < SAMPLES; s++) {
-            long start = System.currentTimeMillis();
-            for (int y = 0; y < HEIGHT; y++) {
-                for (int x = 0; x < WIDTH; x++) {
-                    try {
-                        empty.acquire();
-                        synchronized (queueMutex) {
-                            workQueue.add(new int[]{x, y, s});
-                        }
-                        full.release();
-                    } catch (InterruptedException e) {
-                        System.out.println("Producer Interrupted, EXCEPTION: " + e);
-                    }
-                }
-            }
-            finished.await();
-            long end = System.currentTimeMillis();
-            long averageSampleDuration = ((delta * s) + (end - start)) / (s + 1);
-            delta = end - start;
-            System.out.printf("Samples Rendered: %d/%d -- Average Duration: %ds\r", s + 1, SAMPLES, averageSampleDuration / 1000);
-            if (s % 1000 == 0) {
-                OutputBitmap(WIDTH, HEIGHT, s, bitmap);
-            }
+        final int threads = Runtime.getRuntime().availableProcessors();
+        TileScheduler scheduler = new TileScheduler(WIDTH, HEIGHT, TILE_SIZE, threads);
+        TileWorker worker = new TileWorker(uScale, vScale, frameBuffer);
+        long start = System.currentTimeMillis();
+        scheduler.Start(worker, firstSample, SAMPLES, SAMPLES_PER_CLAIM);
+        ImageOutput output = new ImageOutput(OUTPUT_DIRECTORY, OUTPUT_INTERVAL, OUTPUT_INTERVAL_SECONDS);
+        Checkpoint checkpoint = new Checkpoint(CHECKPOINT_PATH, CHECKPOINT_INTERVAL_SECONDS);
+        // Progress Loop:
+        while (!scheduler.AwaitCompletion(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            int completed = scheduler.CompletedSamples();
+            double seconds = (System.currentTimeMillis() - start) / 1000.0;
+            double samplesPerSecond = scheduler.PixelSamples() / ((double) WIDTH * HEIGHT) / seconds;
+            System.out.printf("Samples Rendered: %d/%d -- %.2f samples/s\r", completed, SAMPLES, samplesPerSecond);
+            output.Poll(completed, frameBuffer);
+            checkpoint.Poll(completed, seed, () -> scheduler.Snapshot(frameBuffer));
         }
+        output.Write(SAMPLES, frameBuffer);
+        output.Close();
+        checkpoint.Close();
+        scheduler.Shutdown();
     }
-    private class Worker implements Runnable {
+    private class TileWorker implements TileScheduler.TileRenderer {
 
-        private final Semaphore full;
-        private final Semaphore empty;
-        private final CountDownLatch finished;
-        private final Deque<int[]> workQueue;
-        private final Object queueMutex;
-        private final Object bitmapMutex;
         private final double UScale;
         private final double VScale;
-        private final Color[][] bitmap;
-        Worker(final Semaphore full,
-               final Semaphore empty,
-               final CountDownLatch finished,
-               final Deque<int[]> workQueue,
-               final Object queueMutex,
-               final Object bitmapMutex,
-               final double UScale,
-               final double VScale,
-               final Color[][] bitmap) {
-            this.full = full;
-            this.empty = empty;
-            this.finished = finished;
-            this.workQueue = workQueue;
-            this.queueMutex = queueMutex;
-            this.bitmapMutex = bitmapMutex;
+        private final FrameBuffer frameBuffer;
+        private final ThreadLocal<RayPacket> packets = ThreadLocal.withInitial(() -> new RayPacket(PACKET_SIZE * PACKET_SIZE));
+        private final ThreadLocal<WavefrontIntegrator> wavefronts = ThreadLocal.withInitial(() -> new WavefrontIntegrator(tracer));
+        private final ThreadLocal<Sampler> samplers = ThreadLocal.withInitial(Sampler::new);
+        TileWorker(final double UScale,
+                   final double VScale,
+                   final FrameBuffer frameBuffer) {
             this.UScale = UScale;
             this.VScale = VScale;
-            this.bitmap = bitmap;
+            this.frameBuffer = frameBuffer;
         }
         @Override
-        public void run() {
-            while (true) {
-                try {
-                    full.acquire();
-                    int[] coords;
-                    synchronized (queueMutex) {
-                        coords = workQueue.pop();
+        public void Render(Tile tile, int firstSample, int samples) {
+            RayPacket packet = packets.get();
+            WavefrontIntegrator wavefront = wavefronts.get();
+            Sampler sampler = samplers.get();
+            for (int py = tile.y0; py < tile.y1; py += PACKET_SIZE) {
+                for (int px = tile.x0; px < tile.x1; px += PACKET_SIZE) {
+                    int x1 = Math.min(px + PACKET_SIZE, tile.x1);
+                    int y1 = Math.min(py + PACKET_SIZE, tile.y1);
+                    packet.Clear();
+                    for (int y = py; y < y1; y++) {
+                        for (int x = px; x < x1; x++) {
+                            double u = 2 * (((double)x + 0.5) / (WIDTH - 1)) - 1;
+                            double v = 1 - (2 * (((double)y + 0.5) / (HEIGHT - 1)));
+                            u *= UScale;
+                            v *= VScale;
+                            packet.Add(camera.transformRay(u, v));
+                        }
                     }
-                    int x = coords[0];
-                    int y = coords[1];
-                    int s = coords[2];
-                    double u = 2 * (((double)x + 0.5) / (WIDTH - 1)) - 1;
-                    double v = 1 - (2 * (((double)y + 0.5) / (HEIGHT - 1)));
-                    u *= UScale;
-                    v *= VScale;
-                    Ray ray = camera.transformRay(u, v);
-                    Point3D color = tracer.traceRayRecursive(ray, 0);
-
-                    synchronized (bitmapMutex) {
-                        Color average = rollingColorAverage(color, bitmap[y][x], s);
-                        bitmap[y][x] = average;
+                    // Camera rays are the same every sample, so the primary hits are shared by all of them
+                    tracer.Intersect(packet);
+                    int i = 0;
+                    for (int y = py; y < y1; y++) {
+                        for (int x = px; x < x1; x++, i++) {
+                            Ray ray = packet.getRay(i);
+                            Optional<WorldObject.Collision> col = packet.Collision(i);
+                            // Pixels restored from a checkpoint may already be ahead of the tile
+                            for (int s = Math.max(firstSample, frameBuffer.SampleCount(x, y)); s < firstSample + samples; s++) {
+                                // Seeded per sample, so a resumed render draws what the first run would have
+                                sampler.Seed(seed, x, y, s);
+                                if (WAVEFRONT) {
+                                    wavefront.Add(x, y, ray, col, sampler);
+                                    continue;
+                                }
+                                Point3D color = tracer.Shade(ray, col, 0, sampler);
+                                frameBuffer.AddSample(x, y, color);
+                            }
+                        }
                     }
-                    empty.release();
-                    finished.countDown();
-                } catch (InterruptedException e) {
-                    System.out.println("Worker interrupted, EXCEPTION: " + e.getMessage());
                 }
             }
+            if (WAVEFRONT) wavefront.Run(frameBuffer);
         }
     }
 }
\ No newline at end of file
@@ -1,18 +1,14 @@
 package luca.raytracing;
 
-import java.util.Random;
-
 public class Dielectric implements Material {
 
     private final double refractiveIndex;
     private final Point3D emittance;
     private final Point3D albedo;
-    private final Random random;
     public Dielectric(final double refractiveIndex) {
         this.refractiveIndex = refractiveIndex;
         this.emittance = new Point3D(0, 0, 0);
         this.albedo = new Point3D(1.0, 1.0, 1.0);
-        this.random = new Random(System.nanoTime());
     }
 
     @Override
@@ -21,7 +17,7 @@ public class Dielectric implements Material {
     }
 
     @Override
-    public PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh) {
+    public PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh, Sampler sampler) {
 
         Point3D normal = basis.getNormal();
         if (isInsideMesh) {
@@ -36,7 +32,7 @@ public class Dielectric implements Material {
         }
 
         // boolean cannotRefract = refractionRatio * sinTheta > 1.0;
-        if (SchlickReflectance(cosTheta) > random.nextDouble()) {
+        if (SchlickReflectance(cosTheta) > sampler.NextDouble()) {
             return new PostCollision(Mirror.reflect(outgoing, basis), false);
         } else {
             Point3D outPerpendicular = (incoming.add(normal.multiply(cosTheta))).multiply(refractionRatio);
@@ -57,4 +53,19 @@ public class Dielectric implements Material {
     public Point3D emittance(Direction outgoing, Basis basis) {
         return emittance;
     }
+
+    @Override
+    public boolean isDiffuse() {
+        return false;
+    }
+
+    @Override
+    public Point3D evaluateBRDF(Direction outgoing, Direction incoming, Basis basis) {
+        return Point3D.ZERO;
+    }
+
+    @Override
+    public double pdf(Direction outgoing, Direction incoming, Basis basis) {
+        return 0;
+    }
 }
@@ -0,0 +1,446 @@
+package luca.raytracing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// BVH flattened into primitive arrays in depth first order, the first child of an interior
+// node is the next node and offsets holds the second child. Leaves store a range of primIndices.
+// Traversal is an iterative loop over a small per-thread int stack.
+public class FlatBVH {
+    // Cost of visiting a node relative to intersecting one primitive, as in the builders
+    private static final double TRAVERSAL_COST = 0.125;
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private final PrimitiveSet set;
+    private double[] bounds = new double[64 * 6];
+    private int[] offsets = new int[64];
+    private int[] primCounts = new int[64];
+    private byte[] axes = new byte[64];
+    private int[] primIndices = new int[64];
+    private int nodeCount = 0;
+    private int primCount = 0;
+    private int maxDepth = 0;
+    // SAH cost of the tree as built, refits are measured against it
+    private double buildCost;
+
+    FlatBVH(BVHBuildNode root, int[] order, PrimitiveSet set) {
+        this.set = set;
+        if (root != null) Flatten(root, order, 1);
+        bounds = Arrays.copyOf(bounds, nodeCount * 6);
+        offsets = Arrays.copyOf(offsets, nodeCount);
+        primCounts = Arrays.copyOf(primCounts, nodeCount);
+        axes = Arrays.copyOf(axes, nodeCount);
+        primIndices = Arrays.copyOf(primIndices, primCount);
+        buildCost = Cost();
+    }
+
+    private FlatBVH(PrimitiveSet set, double[] bounds, int[] offsets, int[] primCounts, byte[] axes,
+                    int[] primIndices, int maxDepth) {
+        this.set = set;
+        this.bounds = bounds;
+        this.offsets = offsets;
+        this.primCounts = primCounts;
+        this.axes = axes;
+        this.primIndices = primIndices;
+        this.nodeCount = offsets.length;
+        this.primCount = primIndices.length;
+        this.maxDepth = maxDepth;
+        this.buildCost = Cost();
+    }
+
+    public int NodeCount() {
+        return nodeCount;
+    }
+
+    // Node layout for structures derived from this tree, such as WideBVH
+    int PrimCount(int node) {
+        return primCounts[node];
+    }
+
+    // First primIndices entry of a leaf, or the second child of an interior node
+    int Offset(int node) {
+        return offsets[node];
+    }
+
+    double NodeBound(int node, int i) {
+        return bounds[node * 6 + i];
+    }
+
+    double NodeArea(int node) {
+        return BVHBuildNode.SurfaceArea(bounds, node * 6);
+    }
+
+    int[] PrimIndices() {
+        return primIndices;
+    }
+
+    // Minimum traversal stack length for Intersect
+    public int StackSize() {
+        return maxDepth + 1;
+    }
+
+    public AABB Bounds() {
+        if (nodeCount == 0) return new AABB();
+        return new AABB(new Point3D(bounds[0], bounds[1], bounds[2]), new Point3D(bounds[3], bounds[4], bounds[5]));
+    }
+
+    // Recomputes node bounds bottom up from the current primitive bounds, for when primitives
+    // move but the tree topology stays valid. Nodes are updated in place, large subtrees in
+    // parallel. Must not run while the BVH is being traversed. Leaves are refit to whole
+    // primitives, so a tree with split references loses its spatial splits, see
+    // HasSplitReferences.
+    public void Refit() {
+        if (nodeCount > 0) ForkJoinPool.commonPool().invoke(new RefitTask(0));
+    }
+
+    private class RefitTask extends RecursiveAction {
+        private final int node;
+        RefitTask(int node) {
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            int b = node * 6;
+            int count = primCounts[node];
+            if (count > 0) {
+                BVHBuildNode.SetEmpty(bounds, b);
+                int first = offsets[node];
+                for (int i = first; i < first + count; i++) {
+                    AABB box = set.Bounds(primIndices[i]);
+                    bounds[b] = Math.min(bounds[b], box.x.min);
+                    bounds[b + 1] = Math.min(bounds[b + 1], box.y.min);
+                    bounds[b + 2] = Math.min(bounds[b + 2], box.z.min);
+                    bounds[b + 3] = Math.max(bounds[b + 3], box.x.max);
+                    bounds[b + 4] = Math.max(bounds[b + 4], box.y.max);
+                    bounds[b + 5] = Math.max(bounds[b + 5], box.z.max);
+                }
+                return;
+            }
+            int left = node + 1, right = offsets[node];
+            // Depth first order puts the whole left subtree between the node and its right child
+            if (right - left > PARALLEL_THRESHOLD) {
+                invokeAll(new RefitTask(left), new RefitTask(right));
+            } else {
+                new RefitTask(left).compute();
+                new RefitTask(right).compute();
+            }
+            for (int a = 0; a < 3; a++) {
+                bounds[b + a] = Math.min(bounds[left * 6 + a], bounds[right * 6 + a]);
+                bounds[b + a + 3] = Math.max(bounds[left * 6 + a + 3], bounds[right * 6 + a + 3]);
+            }
+        }
+    }
+
+    // Expected SAH cost of a ray query relative to intersecting one primitive
+    public double Cost() {
+        if (nodeCount == 0) return 0;
+        double rootArea = BVHBuildNode.SurfaceArea(bounds, 0);
+        if (rootArea == 0) return primCount;
+        double cost = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            double area = BVHBuildNode.SurfaceArea(bounds, node * 6);
+            cost += area * (primCounts[node] > 0 ? primCounts[node] : TRAVERSAL_COST);
+        }
+        return cost / rootArea;
+    }
+
+    // Current SAH cost over the cost when built, grows as refits stretch nodes over moved primitives
+    public double Degradation() {
+        return buildCost == 0 ? 1 : Cost() / buildCost;
+    }
+
+    // True if spatial splits referenced a primitive from more than one leaf, each reference
+    // then only bounds the part of the primitive on its side of the split
+    public boolean HasSplitReferences() {
+        return primIndices.length > set.Size();
+    }
+
+    // Size in bytes of the data written by WriteTo
+    public long ByteSize() {
+        return ByteSize(nodeCount, primCount);
+    }
+
+    private static long ByteSize(long nodeCount, long primCount) {
+        return 3L * Integer.BYTES + nodeCount * (6 * Double.BYTES + 2 * Integer.BYTES + 1) + primCount * Integer.BYTES;
+    }
+
+    public void WriteTo(ByteBuffer buffer) {
+        buffer.putInt(nodeCount);
+        buffer.putInt(primCount);
+        buffer.putInt(maxDepth);
+        buffer.asDoubleBuffer().put(bounds);
+        buffer.position(buffer.position() + bounds.length * Double.BYTES);
+        buffer.asIntBuffer().put(offsets);
+        buffer.position(buffer.position() + offsets.length * Integer.BYTES);
+        buffer.asIntBuffer().put(primCounts);
+        buffer.position(buffer.position() + primCounts.length * Integer.BYTES);
+        buffer.asIntBuffer().put(primIndices);
+        buffer.position(buffer.position() + primIndices.length * Integer.BYTES);
+        buffer.put(axes);
+    }
+
+    // Reads a tree written by WriteTo, the rest of buffer must be exactly that data. Sizes are
+    // checked before anything is allocated and the layout before it is used, so a damaged file
+    // fails with an IOException instead of a bad tree.
+    public static FlatBVH ReadFrom(ByteBuffer buffer, PrimitiveSet set) throws IOException {
+        if (buffer.remaining() < 3 * Integer.BYTES) throw new IOException("BVH data is truncated");
+        int nodeCount = buffer.getInt();
+        int primCount = buffer.getInt();
+        int maxDepth = buffer.getInt();
+        if (nodeCount < 0 || primCount < 0 || maxDepth < 0
+                || ByteSize(nodeCount, primCount) - 3 * Integer.BYTES != buffer.remaining()) {
+            throw new IOException("BVH data does not match its header");
+        }
+        double[] bounds = new double[nodeCount * 6];
+        int[] offsets = new int[nodeCount];
+        int[] primCounts = new int[nodeCount];
+        int[] primIndices = new int[primCount];
+        byte[] axes = new byte[nodeCount];
+        buffer.asDoubleBuffer().get(bounds);
+        buffer.position(buffer.position() + bounds.length * Double.BYTES);
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + offsets.length * Integer.BYTES);
+        buffer.asIntBuffer().get(primCounts);
+        buffer.position(buffer.position() + primCounts.length * Integer.BYTES);
+        buffer.asIntBuffer().get(primIndices);
+        buffer.position(buffer.position() + primIndices.length * Integer.BYTES);
+        buffer.get(axes);
+        Validate(offsets, primCounts, axes, primIndices, maxDepth, set.Size());
+        return new FlatBVH(set, bounds, offsets, primCounts, axes, primIndices, maxDepth);
+    }
+
+    // Walks the tree once: every node reached exactly once in depth first order, leaf ranges and
+    // primitive indices in bounds and no path deeper than the traversal stack allows
+    private static void Validate(int[] offsets, int[] primCounts, byte[] axes, int[] primIndices, int maxDepth,
+                                 int setSize) throws IOException {
+        int nodeCount = offsets.length;
+        for (int prim : primIndices) {
+            if (prim < 0 || prim >= setSize) throw new IOException("BVH refers to a missing primitive");
+        }
+        if (nodeCount == 0) return;
+        int[] nodes = new int[nodeCount + 1];
+        int[] depths = new int[nodeCount + 1];
+        int sp = 0, visited = 0;
+        nodes[sp] = 0;
+        depths[sp++] = 1;
+        while (sp > 0) {
+            int node = nodes[--sp];
+            int depth = depths[sp];
+            // Depth first order visits the nodes in index order
+            if (node != visited++ || depth > maxDepth) throw new IOException("BVH layout is corrupt");
+            int count = primCounts[node], offset = offsets[node];
+            if (count > 0) {
+                if (offset < 0 || offset > primIndices.length - count) throw new IOException("BVH leaf range is corrupt");
+            } else if (count < 0 || axes[node] < 0 || axes[node] > 2 || offset <= node + 1 || offset >= nodeCount) {
+                throw new IOException("BVH layout is corrupt");
+            } else {
+                nodes[sp] = offset;
+                depths[sp++] = depth + 1;
+                nodes[sp] = node + 1;
+                depths[sp++] = depth + 1;
+            }
+        }
+        if (visited != nodeCount) throw new IOException("BVH layout is corrupt");
+    }
+
+    // Returns the index of the emitted node
+    private int Flatten(BVHBuildNode node, int[] order, int depth) {
+        maxDepth = Math.max(maxDepth, depth);
+        if (node.IsLeaf()) {
+            int first = primCount;
+            for (int i = node.first; i < node.first + node.count; i++) {
+                if (primCount == primIndices.length) primIndices = Arrays.copyOf(primIndices, primCount * 2);
+                primIndices[primCount++] = order[i];
+            }
+            return AddNode(node.bounds, first, node.count, 0);
+        }
+        int index = AddNode(node.bounds, 0, 0, node.axis);
+        Flatten(node.left, order, depth + 1);
+        // Flattening may reallocate offsets, so it must finish before the store
+        int right = Flatten(node.right, order, depth + 1);
+        offsets[index] = right;
+        return index;
+    }
+
+    private int AddNode(double[] box, int offset, int count, int axis) {
+        if (nodeCount == offsets.length) {
+            bounds = Arrays.copyOf(bounds, nodeCount * 12);
+            offsets = Arrays.copyOf(offsets, nodeCount * 2);
+            primCounts = Arrays.copyOf(primCounts, nodeCount * 2);
+            axes = Arrays.copyOf(axes, nodeCount * 2);
+        }
+        System.arraycopy(box, 0, bounds, nodeCount * 6, 6);
+        offsets[nodeCount] = offset;
+        primCounts[nodeCount] = count;
+        axes[nodeCount] = (byte) axis;
+        return nodeCount++;
+    }
+
+    // Closest hit, allocation free once the per-thread stack in hit is large enough.
+    // Children are visited front to back along the split axis and any node whose entry
+    // distance is beyond the closest hit found so far is skipped.
+    public boolean Intersect(Ray ray, Hit hit) {
+        if (hit.stack.length < StackSize()) hit.stack = new int[StackSize()];
+        return Intersect(ray, hit, hit.stack);
+    }
+
+    // Same traversal on a caller supplied stack of at least StackSize() entries
+    boolean Intersect(Ray ray, Hit hit, int[] stack) {
+        if (nodeCount == 0) return false;
+        boolean found = false;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (SlabEntry(node, ray, hit.t) == Double.POSITIVE_INFINITY) continue;
+            int count = primCounts[node];
+            if (count > 0) {
+                int first = offsets[node];
+                for (int i = first; i < first + count; i++) {
+                    found |= set.Intersect(primIndices[i], ray, hit);
+                }
+            } else if (DirectionNegative(ray, axes[node])) {
+                // The second child holds the larger coordinates, so it is nearer
+                stack[sp++] = node + 1;
+                stack[sp++] = offsets[node];
+            } else {
+                stack[sp++] = offsets[node];
+                stack[sp++] = node + 1;
+            }
+        }
+        return found;
+    }
+
+    // Any hit on [tMin, tMax], allocation free like Intersect. Returns at the first primitive hit
+    // without narrowing the segment, so children are pushed in the same near first order but
+    // nothing has to be sorted or kept.
+    public boolean Occluded(Ray ray, double tMin, double tMax, Hit hit) {
+        hit.Reset();
+        hit.tMin = tMin;
+        hit.t = tMax;
+        if (hit.stack.length < StackSize()) hit.stack = new int[StackSize()];
+        return Occluded(ray, hit, hit.stack);
+    }
+
+    // Same query on the segment [hit.tMin, hit.t] and a caller supplied stack
+    boolean Occluded(Ray ray, Hit hit, int[] stack) {
+        if (nodeCount == 0) return false;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (SlabEntry(node, ray, hit.tMin, hit.t) == Double.POSITIVE_INFINITY) continue;
+            int count = primCounts[node];
+            if (count > 0) {
+                int first = offsets[node];
+                for (int i = first; i < first + count; i++) {
+                    if (set.Occluded(primIndices[i], ray, hit)) return true;
+                }
+            } else if (DirectionNegative(ray, axes[node])) {
+                stack[sp++] = node + 1;
+                stack[sp++] = offsets[node];
+            } else {
+                stack[sp++] = offsets[node];
+                stack[sp++] = node + 1;
+            }
+        }
+        return false;
+    }
+
+    // Closest hits for every ray of a packet. Each node is first tested against the whole packet
+    // with interval arithmetic, then ray by ray starting from the first ray still active in that
+    // subtree, the rays before it already missed an ancestor. Leaves test each primitive against
+    // all the rays that reach the leaf.
+    public void Intersect(RayPacket packet) {
+        if (nodeCount == 0 || packet.size == 0) return;
+        packet.ComputeBounds();
+        if (packet.nodeStack.length < StackSize()) {
+            packet.nodeStack = new int[StackSize()];
+            packet.firstStack = new int[StackSize()];
+        }
+        int[] nodes = packet.nodeStack;
+        int[] firsts = packet.firstStack;
+        Ray[] rays = packet.rays;
+        Hit[] hits = packet.hits;
+        boolean[] active = packet.active;
+        int sp = 0;
+        nodes[sp] = 0;
+        firsts[sp++] = 0;
+        while (sp > 0) {
+            sp--;
+            int node = nodes[sp];
+            int first = firsts[sp];
+            if (PacketMisses(node, packet)) continue;
+            while (first < packet.size && SlabEntry(node, rays[first], hits[first].t) == Double.POSITIVE_INFINITY) first++;
+            if (first == packet.size) continue;
+            int count = primCounts[node];
+            if (count > 0) {
+                active[first] = true;
+                for (int r = first + 1; r < packet.size; r++) {
+                    active[r] = SlabEntry(node, rays[r], hits[r].t) != Double.POSITIVE_INFINITY;
+                }
+                int firstPrim = offsets[node];
+                for (int i = firstPrim; i < firstPrim + count; i++) {
+                    int prim = primIndices[i];
+                    for (int r = first; r < packet.size; r++) {
+                        if (active[r]) set.Intersect(prim, rays[r], hits[r]);
+                    }
+                }
+            } else {
+                // Order children by the first active ray, coherent rays agree on the direction
+                boolean negative = DirectionNegative(rays[first], axes[node]);
+                nodes[sp] = negative ? node + 1 : offsets[node];
+                firsts[sp++] = first;
+                nodes[sp] = negative ? offsets[node] : node + 1;
+                firsts[sp++] = first;
+            }
+        }
+    }
+
+    // True if no ray of the packet can enter the node: the smallest entry distance any ray could
+    // have is beyond the largest exit distance any ray could have
+    private boolean PacketMisses(int node, RayPacket packet) {
+        int b = node * 6;
+        double entry = 0, exit = Double.POSITIVE_INFINITY;
+        for (int a = 0; a < 3; a++) {
+            if (!packet.coherent[a]) continue;
+            boolean positive = packet.inverseMin[a] > 0;
+            double near = positive ? bounds[b + a] : bounds[b + a + 3];
+            double far = positive ? bounds[b + a + 3] : bounds[b + a];
+            entry = Math.max(entry, ProductMin(near - packet.originMax[a], near - packet.originMin[a],
+                    packet.inverseMin[a], packet.inverseMax[a]));
+            exit = Math.min(exit, ProductMax(far - packet.originMax[a], far - packet.originMin[a],
+                    packet.inverseMin[a], packet.inverseMax[a]));
+        }
+        return entry > exit;
+    }
+
+    // Bounds of the interval product [a0, a1] * [b0, b1]
+    private static double ProductMin(double a0, double a1, double b0, double b1) {
+        return Math.min(Math.min(a0 * b0, a0 * b1), Math.min(a1 * b0, a1 * b1));
+    }
+
+    private static double ProductMax(double a0, double a1, double b0, double b1) {
+        return Math.max(Math.max(a0 * b0, a0 * b1), Math.max(a1 * b0, a1 * b1));
+    }
+
+    private static boolean DirectionNegative(Ray ray, int axis) {
+        if (axis == 0) return ray.dx < 0;
+        if (axis == 1) return ray.dy < 0;
+        return ray.dz < 0;
+    }
+
+    // Distance at which the ray enters the node within [0, tMax], infinity if it misses
+    private double SlabEntry(int node, Ray ray, double tMax) {
+        return SlabEntry(node, ray, 0, tMax);
+    }
+
+    private double SlabEntry(int node, Ray ray, double tMin, double tMax) {
+        int b = node * 6;
+        return AABB.SlabEntry(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5],
+                ray, tMin, tMax);
+    }
+}
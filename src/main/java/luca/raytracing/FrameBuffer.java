@@ -0,0 +1,94 @@
+package luca.raytracing;
+
+import java.nio.ByteBuffer;
+
+// Accumulates radiance as flat RGB sums and per-pixel sample counts.
+// Each pixel is only written by the tile that owns it, so no locking is needed,
+// values are kept unclamped until they are resolved for an image. Resolving while tiles
+// are still rendering reads a slightly stale mix of samples, which is fine for progress images.
+public class FrameBuffer {
+    private final int width;
+    private final int height;
+    private final double[] sums;
+    private final int[] counts;
+
+    FrameBuffer(int width, int height) {
+        this(width, height, new double[width * height * 3], new int[width * height]);
+    }
+    private FrameBuffer(int width, int height, double[] sums, int[] counts) {
+        this.width = width;
+        this.height = height;
+        this.sums = sums;
+        this.counts = counts;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+    public int getHeight() {
+        return height;
+    }
+
+    public void AddSample(int x, int y, Point3D color) {
+        int i = y * width + x;
+        sums[i * 3] += color.getX();
+        sums[i * 3 + 1] += color.getY();
+        sums[i * 3 + 2] += color.getZ();
+        counts[i]++;
+    }
+
+    public int SampleCount(int x, int y) {
+        return counts[y * width + x];
+    }
+
+    // Copy of the current sums and counts that can be resolved while rendering continues.
+    // Tiles still rendering may be copied mid-sample, see TileScheduler.Snapshot for an exact copy.
+    public FrameBuffer Snapshot() {
+        return new FrameBuffer(width, height, sums.clone(), counts.clone());
+    }
+
+    // Copies the sums and counts of the pixels in tile into target, which has the same size
+    public void CopyTile(Tile tile, FrameBuffer target) {
+        for (int y = tile.y0; y < tile.y1; y++) {
+            int i = y * width + tile.x0;
+            System.arraycopy(sums, i * 3, target.sums, i * 3, tile.Width() * 3);
+            System.arraycopy(counts, i, target.counts, i, tile.Width());
+        }
+    }
+
+    // Average every pixel and pack it as 8-bit ARGB into argb, clamping only at this point
+    public void ResolveARGB(int[] argb) {
+        for (int i = 0; i < width * height; i++) {
+            int n = Math.max(counts[i], 1);
+            int r = ToByte(sums[i * 3] / n);
+            int g = ToByte(sums[i * 3 + 1] / n);
+            int b = ToByte(sums[i * 3 + 2] / n);
+            argb[i] = (0xFF << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    // Size in bytes of the data written by WriteTo
+    public static long ByteSize(int width, int height) {
+        return (long) width * height * (3 * Double.BYTES + Integer.BYTES);
+    }
+
+    public void WriteTo(ByteBuffer buffer) {
+        buffer.asDoubleBuffer().put(sums);
+        buffer.position(buffer.position() + sums.length * Double.BYTES);
+        buffer.asIntBuffer().put(counts);
+        buffer.position(buffer.position() + counts.length * Integer.BYTES);
+    }
+
+    public static FrameBuffer ReadFrom(ByteBuffer buffer, int width, int height) {
+        FrameBuffer frameBuffer = new FrameBuffer(width, height);
+        buffer.asDoubleBuffer().get(frameBuffer.sums);
+        buffer.position(buffer.position() + frameBuffer.sums.length * Double.BYTES);
+        buffer.asIntBuffer().get(frameBuffer.counts);
+        buffer.position(buffer.position() + frameBuffer.counts.length * Integer.BYTES);
+        return frameBuffer;
+    }
+
+    private static int ToByte(double c) {
+        return (int) (Math.min(Math.max(c, 0), 1) * 255);
+    }
+}
@@ -0,0 +1,44 @@
+package luca.raytracing;
+
+// Mutable closest-hit record reused across intersection tests so traversal allocates nothing,
+// the full WorldObject.Collision is only built once for the winning object. Hits are recorded
+// either against a Hittable object or against a primitive index in a PrimitiveSet, a hit inside
+// an Instance also records the instance so the collision can be moved back to world space.
+public class Hit {
+    double t;
+    // Start of the ray segment hits are accepted on, 0 apart from occlusion queries
+    double tMin;
+    // Barycentric coordinates of the hit on a triangle
+    double u, v;
+    Hittable object;
+    PrimitiveSet set;
+    int prim;
+    Instance instance;
+    // Traversal stack for FlatBVH, grown on demand
+    int[] stack = new int[64];
+    // Entry distances of the four children of a WideBVH node and the order they are visited in
+    final double[] lanes = new double[4];
+    final int[] laneOrder = new int[4];
+    // Object space ray and stack for the bottom level BVH while the top level is mid traversal
+    final Ray local = new Ray();
+    int[] instanceStack = new int[64];
+
+    Hit() {
+        Reset();
+    }
+
+    public void Reset() {
+        t = Double.POSITIVE_INFINITY;
+        tMin = 0;
+        object = null;
+        set = null;
+        prim = -1;
+        instance = null;
+    }
+
+    public WorldObject.Collision ToCollision(Ray ray) {
+        if (instance != null) return instance.ToCollision(ray, this);
+        if (object != null) return object.ToCollision(ray, this);
+        return set.ToCollision(prim, ray, this);
+    }
+}
@@ -5,6 +5,27 @@ import java.util.Optional;
 public interface Hittable {
     public AABB GetBoundingBox();
     public void GenerateBoundingBox();
-    public Optional<WorldObject.Collision> Collision(Ray ray);
+    // Closest hit test: only accepts collisions nearer than hit.t, recording them in hit
+    public boolean Intersect(Ray ray, Hit hit);
+    // Builds the full collision for a hit recorded by this object
+    public WorldObject.Collision ToCollision(Ray ray, Hit hit);
+    // Any hit test on the segment [tMin, tMax] of the ray, for visibility queries such as shadow
+    // rays. Stops at the first collision found, hit is only used as scratch space.
+    public default boolean Occluded(Ray ray, double tMin, double tMax, Hit hit) {
+        hit.Reset();
+        hit.tMin = tMin;
+        hit.t = tMax;
+        return Occluded(ray, hit);
+    }
+    // Any hit test on the segment [hit.tMin, hit.t] set up by the caller. A single object's
+    // closest hit is as cheap as any hit, containers override this to stop early.
+    public default boolean Occluded(Ray ray, Hit hit) {
+        return Intersect(ray, hit);
+    }
+    public default Optional<WorldObject.Collision> Collision(Ray ray) {
+        Hit hit = new Hit();
+        if (!Intersect(ray, hit)) return Optional.empty();
+        return Optional.of(hit.ToCollision(ray));
+    }
     Point3D GetCentre();
 }
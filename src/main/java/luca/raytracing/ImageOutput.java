@@ -0,0 +1,88 @@
+package luca.raytracing;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Writes progress images without stalling the render: the framebuffer is snapshotted on the
+// calling thread and resolved/encoded on a background thread. An image is due every
+// sampleInterval completed samples or every secondsInterval seconds, whichever comes first,
+// either can be disabled by passing 0.
+public class ImageOutput {
+    private final String directory;
+    private final int sampleInterval;
+    private final long secondsInterval;
+    private final ExecutorService encoder;
+    private final AtomicBoolean encoding = new AtomicBoolean(false);
+    private int nextSamples = 1;
+    private long nextTime;
+
+    ImageOutput(String directory, int sampleInterval, long secondsInterval) {
+        this.directory = directory;
+        this.sampleInterval = sampleInterval;
+        this.secondsInterval = secondsInterval;
+        this.nextTime = System.currentTimeMillis() + secondsInterval * 1000;
+        this.encoder = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "image-output");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Writes an image if one is due and the previous one has finished encoding
+    public void Poll(int completedSamples, FrameBuffer frameBuffer) {
+        long now = System.currentTimeMillis();
+        boolean samplesDue = sampleInterval > 0 && completedSamples >= nextSamples;
+        boolean timeDue = secondsInterval > 0 && now >= nextTime;
+        if (!samplesDue && !timeDue) return;
+        if (!encoding.compareAndSet(false, true)) return;
+        if (sampleInterval > 0) nextSamples = (completedSamples / sampleInterval + 1) * sampleInterval;
+        nextTime = now + secondsInterval * 1000;
+        Submit(completedSamples, frameBuffer.Snapshot());
+    }
+
+    // Writes an image regardless of the intervals, e.g. for the final render
+    public void Write(int completedSamples, FrameBuffer frameBuffer) {
+        encoding.set(true);
+        Submit(completedSamples, frameBuffer.Snapshot());
+    }
+
+    // Waits for queued images to finish encoding
+    public void Close() throws InterruptedException {
+        encoder.shutdown();
+        encoder.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private void Submit(int samples, FrameBuffer snapshot) {
+        encoder.execute(() -> {
+            try {
+                Encode(samples, snapshot);
+            } finally {
+                encoding.set(false);
+            }
+        });
+    }
+
+    private void Encode(int samples, FrameBuffer snapshot) {
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] raster = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+        snapshot.ResolveARGB(raster);
+        try {
+            String filename;
+            filename = String.format("%s/Render-(%dx%dx%d).png", directory, width, height, samples);
+            File outputFile = new File(filename);
+            ImageIO.write(bufferedImage, "png", outputFile);
+            System.out.printf("Image written to %s\n", filename);
+        } catch (IOException e) {
+            System.out.printf("ERROR Writing to File: %s\n", e.getMessage());
+        }
+    }
+}
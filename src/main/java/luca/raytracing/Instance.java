@@ -0,0 +1,126 @@
+package luca.raytracing;
+
+// A placement of an InstancedMesh: object space is rotated, uniformly scaled and translated into
+// the world. Rays are moved into object space at the instance instead of the triangles being
+// copied, the object space direction is left unnormalised so hit distances need no rescaling.
+public class Instance implements Hittable {
+    private final InstancedMesh mesh;
+    private final Material mat;
+    // World from object rotation, row major
+    private final double[] rotation = new double[9];
+    private double scale;
+    private double tx, ty, tz;
+    private AABB bbox;
+
+    Instance(InstancedMesh mesh, Material mat, Point3D pos, Point3D rot, double scale) {
+        this.mesh = mesh;
+        this.mat = mat;
+        SetTransform(pos, rot, scale);
+    }
+
+    // Places the instance again, refit the top level BVH afterwards
+    public void SetTransform(Point3D pos, Point3D rot, double scale) {
+        this.scale = scale;
+        this.tx = pos.getX();
+        this.ty = pos.getY();
+        this.tz = pos.getZ();
+        MatrixNxM r = MatrixNxM.RotationMatrix(rot.getX(), rot.getY(), rot.getZ());
+        Point3D[] columns = {
+                r.Multiply(new Point3D(1, 0, 0)),
+                r.Multiply(new Point3D(0, 1, 0)),
+                r.Multiply(new Point3D(0, 0, 1))
+        };
+        for (int c = 0; c < 3; c++) {
+            rotation[c] = columns[c].getX();
+            rotation[3 + c] = columns[c].getY();
+            rotation[6 + c] = columns[c].getZ();
+        }
+        GenerateBoundingBox();
+    }
+
+    public Material getMat() {
+        return mat;
+    }
+
+    // Object space point to world space
+    public Point3D ToWorld(Point3D p) {
+        double x = p.getX(), y = p.getY(), z = p.getZ();
+        return new Point3D(
+                scale * (rotation[0] * x + rotation[1] * y + rotation[2] * z) + tx,
+                scale * (rotation[3] * x + rotation[4] * y + rotation[5] * z) + ty,
+                scale * (rotation[6] * x + rotation[7] * y + rotation[8] * z) + tz);
+    }
+
+    @Override
+    public AABB GetBoundingBox() {
+        return bbox;
+    }
+
+    // World bounds of the eight transformed corners of the mesh bounds
+    @Override
+    public void GenerateBoundingBox() {
+        AABB local = mesh.getBVH().Bounds();
+        AABB box = new AABB();
+        for (int i = 0; i < 8; i++) {
+            Point3D corner = ToWorld(new Point3D(
+                    (i & 1) == 0 ? local.x.min : local.x.max,
+                    (i & 2) == 0 ? local.y.min : local.y.max,
+                    (i & 4) == 0 ? local.z.min : local.z.max));
+            box = new AABB(box, new AABB(corner, corner));
+        }
+        this.bbox = box;
+    }
+
+    @Override
+    public boolean Intersect(Ray ray, Hit hit) {
+        Ray local = ToLocal(ray, hit);
+        FlatBVH bvh = mesh.getBVH();
+        if (hit.instanceStack.length < bvh.StackSize()) hit.instanceStack = new int[bvh.StackSize()];
+        if (!bvh.Intersect(local, hit, hit.instanceStack)) return false;
+        hit.instance = this;
+        return true;
+    }
+
+    @Override
+    public boolean Occluded(Ray ray, Hit hit) {
+        Ray local = ToLocal(ray, hit);
+        FlatBVH bvh = mesh.getBVH();
+        if (hit.instanceStack.length < bvh.StackSize()) hit.instanceStack = new int[bvh.StackSize()];
+        return bvh.Occluded(local, hit, hit.instanceStack);
+    }
+
+    // Object space copy of ray in hit.local
+    private Ray ToLocal(Ray ray, Hit hit) {
+        // Inverse transform: R^T (p - t) / s, the rotation inverse is its transpose
+        double inv = 1.0 / scale;
+        double px = ray.ox - tx, py = ray.oy - ty, pz = ray.oz - tz;
+        Ray local = hit.local;
+        local.SetPrimitive(
+                (rotation[0] * px + rotation[3] * py + rotation[6] * pz) * inv,
+                (rotation[1] * px + rotation[4] * py + rotation[7] * pz) * inv,
+                (rotation[2] * px + rotation[5] * py + rotation[8] * pz) * inv,
+                (rotation[0] * ray.dx + rotation[3] * ray.dy + rotation[6] * ray.dz) * inv,
+                (rotation[1] * ray.dx + rotation[4] * ray.dy + rotation[7] * ray.dz) * inv,
+                (rotation[2] * ray.dx + rotation[5] * ray.dy + rotation[8] * ray.dz) * inv,
+                ray.IsInsideMesh());
+        return local;
+    }
+
+    @Override
+    public WorldObject.Collision ToCollision(Ray ray, Hit hit) {
+        Point3D loc = new Point3D(ray.ox + ray.dx * hit.t, ray.oy + ray.dy * hit.t, ray.oz + ray.dz * hit.t);
+        // Uniform scale keeps normals perpendicular, so only the rotation applies
+        Point3D n = mesh.getTriangles().GetNormal(hit.prim);
+        double x = n.getX(), y = n.getY(), z = n.getZ();
+        Point3D normal = new Point3D(
+                rotation[0] * x + rotation[1] * y + rotation[2] * z,
+                rotation[3] * x + rotation[4] * y + rotation[5] * z,
+                rotation[6] * x + rotation[7] * y + rotation[8] * z);
+        return new WorldObject.Collision(loc, mat, normal, hit.t * hit.t);
+    }
+
+    @Override
+    public Point3D GetCentre() {
+        return new Point3D((bbox.x.min + bbox.x.max) / 2, (bbox.y.min + bbox.y.max) / 2, (bbox.z.min + bbox.z.max) / 2);
+    }
+}
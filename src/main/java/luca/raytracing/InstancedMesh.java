@@ -0,0 +1,29 @@
+package luca.raytracing;
+
+import java.util.List;
+
+// Bottom level geometry shared by any number of Instances: the triangles in object space and
+// a BVH over them, built once however many times the mesh is placed in the scene
+public class InstancedMesh {
+    private final TriangleSoup triangles;
+    private final FlatBVH bvh;
+
+    InstancedMesh(List<Triangle> triangles) {
+        this.triangles = new TriangleSoup(triangles);
+        BVHBuilder builder = BVHBuilder.Create(BVHBuilder.Type.SAH, this.triangles);
+        this.bvh = new FlatBVH(builder.Build(), builder.Order(), this.triangles);
+    }
+
+    public TriangleSoup getTriangles() {
+        return triangles;
+    }
+
+    public FlatBVH getBVH() {
+        return bvh;
+    }
+
+    // Call after moving triangles with TriangleSoup.SetVertices, before refitting the scene
+    public void Refit() {
+        bvh.Refit();
+    }
+}
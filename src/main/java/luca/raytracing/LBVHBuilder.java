@@ -0,0 +1,249 @@
+package luca.raytracing;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+// Linear BVH builder: primitives are sorted along a 63-bit Morton curve of their centres with a
+// parallel radix sort, then every internal node is found independently from the sorted codes
+// (Karras 2012). A bottom up pass computes bounds and collapses subtrees into leaves where
+// the SAH says a leaf is cheaper, recovering some of the quality of a full SAH build.
+public class LBVHBuilder implements BVHBuilder {
+    private static final int MORTON_BITS = 21;
+    private static final double TRAVERSAL_COST = 0.125;
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int RADIX_BITS = 8;
+
+    private final int size;
+    private final double[] primBounds;
+    private final long[] codes;
+    private final int[] order;
+    private int[] leftChild;
+    private int[] rightChild;
+    // Other end of the sorted range covered by internal node i, the range is [min, max] of the two
+    private int[] rangeEnd;
+
+    LBVHBuilder(PrimitiveSet set) {
+        this.size = set.Size();
+        this.primBounds = new double[size * 6];
+        this.codes = new long[size];
+        this.order = new int[size];
+        double[] centreBounds = BVHBuildNode.EmptyBounds();
+        for (int i = 0; i < size; i++) {
+            AABB box = set.Bounds(i);
+            primBounds[i * 6] = box.x.min;
+            primBounds[i * 6 + 1] = box.y.min;
+            primBounds[i * 6 + 2] = box.z.min;
+            primBounds[i * 6 + 3] = box.x.max;
+            primBounds[i * 6 + 4] = box.y.max;
+            primBounds[i * 6 + 5] = box.z.max;
+            for (int a = 0; a < 3; a++) {
+                double c = (primBounds[i * 6 + a] + primBounds[i * 6 + a + 3]) / 2;
+                centreBounds[a] = Math.min(centreBounds[a], c);
+                centreBounds[a + 3] = Math.max(centreBounds[a + 3], c);
+            }
+        }
+        double scale = (1 << MORTON_BITS) - 1;
+        IntStream.range(0, size).parallel().forEach(i -> {
+            long code = 0;
+            for (int a = 0; a < 3; a++) {
+                double extent = centreBounds[a + 3] - centreBounds[a];
+                double c = (primBounds[i * 6 + a] + primBounds[i * 6 + a + 3]) / 2;
+                long q = extent > 0 ? (long) ((c - centreBounds[a]) / extent * scale) : 0;
+                code |= ExpandBits(q) << (2 - a);
+            }
+            codes[i] = code;
+            order[i] = i;
+        });
+    }
+
+    @Override
+    public BVHBuildNode Build() {
+        if (size == 0) return null;
+        RadixSort(codes, order);
+        if (size == 1) return BVHBuildNode.Leaf(LeafBounds(0), 0, 1);
+        // Internal node i has children that are internal nodes (>= 0) or sorted leaves (~index)
+        leftChild = new int[size - 1];
+        rightChild = new int[size - 1];
+        rangeEnd = new int[size - 1];
+        IntStream.range(0, size - 1).parallel().forEach(this::FindChildren);
+        return ForkJoinPool.commonPool().invoke(new BoundsTask(0)).node;
+    }
+
+    @Override
+    public int[] Order() {
+        return order;
+    }
+
+    // Spreads the low 21 bits of v so there are two zero bits between each
+    private static long ExpandBits(long v) {
+        v &= 0x1fffffL;
+        v = (v | v << 32) & 0x1f00000000ffffL;
+        v = (v | v << 16) & 0x1f0000ff0000ffL;
+        v = (v | v << 8) & 0x100f00f00f00f00fL;
+        v = (v | v << 4) & 0x10c30c30c30c30c3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+    // Length of the common prefix of the codes at i and j, equal codes fall back to their indices
+    private int Delta(int i, int j) {
+        if (j < 0 || j >= size) return -1;
+        long x = codes[i] ^ codes[j];
+        if (x == 0) return 64 + Integer.numberOfLeadingZeros(i ^ j);
+        return Long.numberOfLeadingZeros(x);
+    }
+
+    private void FindChildren(int i) {
+        // Direction of the range covered by node i
+        int d = Delta(i, i + 1) - Delta(i, i - 1) > 0 ? 1 : -1;
+        int deltaMin = Delta(i, i - d);
+        int lengthMax = 2;
+        while (Delta(i, i + lengthMax * d) > deltaMin) lengthMax *= 2;
+        int length = 0;
+        for (int t = lengthMax / 2; t >= 1; t /= 2) {
+            if (Delta(i, i + (length + t) * d) > deltaMin) length += t;
+        }
+        int j = i + length * d;
+        rangeEnd[i] = j;
+        // Binary search for where the prefix of the range changes
+        int deltaNode = Delta(i, j);
+        int split = 0;
+        int divisor = 2;
+        for (int t = (length + divisor - 1) / divisor; ; t = (length + divisor - 1) / divisor) {
+            if (Delta(i, i + (split + t) * d) > deltaNode) split += t;
+            if (t == 1) break;
+            divisor *= 2;
+        }
+        int gamma = i + split * d + Math.min(d, 0);
+        leftChild[i] = Math.min(i, j) == gamma ? ~gamma : gamma;
+        rightChild[i] = Math.max(i, j) == gamma + 1 ? ~(gamma + 1) : gamma + 1;
+    }
+
+    // Number of sorted primitives under a child, internal nodes (>= 0) or sorted leaves (~index)
+    private int RangeSize(int child) {
+        return child < 0 ? 1 : Math.abs(rangeEnd[child] - child) + 1;
+    }
+
+    private double[] LeafBounds(int sorted) {
+        double[] bounds = new double[6];
+        System.arraycopy(primBounds, order[sorted] * 6, bounds, 0, 6);
+        return bounds;
+    }
+
+    // Axis of the highest Morton bit that differs across a range, i.e. the axis it was split on
+    private int SplitAxis(int first, int last) {
+        long x = codes[first] ^ codes[last];
+        if (x == 0) return 0;
+        int bit = 63 - Long.numberOfLeadingZeros(x);
+        return 2 - bit % 3;
+    }
+
+    private static class Subtree {
+        final BVHBuildNode node;
+        final int first, last;
+        // SAH cost relative to intersecting one primitive
+        final double cost;
+        Subtree(BVHBuildNode node, int first, int last, double cost) {
+            this.node = node;
+            this.first = first;
+            this.last = last;
+            this.cost = cost;
+        }
+    }
+
+    private class BoundsTask extends RecursiveTask<Subtree> {
+        private final int child;
+        BoundsTask(int child) {
+            this.child = child;
+        }
+
+        @Override
+        protected Subtree compute() {
+            if (child < 0) {
+                int sorted = ~child;
+                return new Subtree(BVHBuildNode.Leaf(LeafBounds(sorted), sorted, 1), sorted, sorted, 1);
+            }
+            BoundsTask leftTask = new BoundsTask(leftChild[child]);
+            BoundsTask rightTask = new BoundsTask(rightChild[child]);
+            Subtree left, right;
+            // Only worth forking when both halves hold enough primitives
+            if (RangeSize(leftChild[child]) > PARALLEL_THRESHOLD && RangeSize(rightChild[child]) > PARALLEL_THRESHOLD) {
+                leftTask.fork();
+                right = rightTask.compute();
+                left = leftTask.join();
+            } else {
+                left = leftTask.compute();
+                right = rightTask.compute();
+            }
+            int first = left.first, last = right.last;
+            int count = last - first + 1;
+            double[] bounds = BVHBuildNode.EmptyBounds();
+            BVHBuildNode.Grow(bounds, 0, left.node.bounds, 0);
+            BVHBuildNode.Grow(bounds, 0, right.node.bounds, 0);
+            double area = BVHBuildNode.SurfaceArea(bounds, 0);
+            double splitCost = area > 0
+                    ? TRAVERSAL_COST + (BVHBuildNode.SurfaceArea(left.node.bounds, 0) * left.cost
+                        + BVHBuildNode.SurfaceArea(right.node.bounds, 0) * right.cost) / area
+                    : left.cost + right.cost;
+            if (count <= MAX_LEAF_SIZE && count <= splitCost) {
+                return new Subtree(BVHBuildNode.Leaf(bounds, first, count), first, last, count);
+            }
+            BVHBuildNode node = BVHBuildNode.Interior(bounds, SplitAxis(first, last), left.node, right.node);
+            return new Subtree(node, first, last, splitCost);
+        }
+    }
+
+    // Stable LSD radix sort of keys, carrying values along. Each pass histograms and scatters
+    // fixed chunks of the input in parallel, chunk offsets come from a prefix sum over digits.
+    static void RadixSort(long[] keys, int[] values) {
+        int n = keys.length;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.commonPool().getParallelism() * 4, n / PARALLEL_THRESHOLD));
+        int chunkSize = (n + chunks - 1) / chunks;
+        int buckets = 1 << RADIX_BITS;
+        long[] keysTmp = new long[n];
+        int[] valuesTmp = new int[n];
+        long[] srcKeys = keys, dstKeys = keysTmp;
+        int[] srcValues = values, dstValues = valuesTmp;
+        int[][] offsets = new int[chunks][buckets];
+        for (int shift = 0; shift < 63; shift += RADIX_BITS) {
+            final int s = shift;
+            final long[] sk = srcKeys, dk = dstKeys;
+            final int[] sv = srcValues, dv = dstValues;
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] histogram = offsets[c];
+                Arrays.fill(histogram, 0);
+                for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+                    histogram[(int) (sk[i] >>> s) & (buckets - 1)]++;
+                }
+            });
+            int running = 0;
+            for (int digit = 0; digit < buckets; digit++) {
+                for (int c = 0; c < chunks; c++) {
+                    int count = offsets[c][digit];
+                    offsets[c][digit] = running;
+                    running += count;
+                }
+            }
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] offset = offsets[c];
+                for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+                    int digit = (int) (sk[i] >>> s) & (buckets - 1);
+                    int to = offset[digit]++;
+                    dk[to] = sk[i];
+                    dv[to] = sv[i];
+                }
+            });
+            srcKeys = dk;
+            dstKeys = sk;
+            srcValues = dv;
+            dstValues = sv;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcValues, 0, values, 0, n);
+        }
+    }
+}
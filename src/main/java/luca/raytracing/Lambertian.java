@@ -1,28 +1,23 @@
 package luca.raytracing;
 
-import java.util.Random;
-
 public class Lambertian implements Material {
     private final Point3D albedo;
     private final Point3D emittance;
-    private final Random random;
 
     Lambertian(Point3D albedo, Point3D emittance) {
         this.albedo = albedo;
         this.emittance = emittance;
-        this.random = new Random(System.nanoTime());
     }
     Lambertian(Point3D albedo, double mutator) {
         this.albedo = albedo.multiply(mutator);
         this.emittance = Point3D.ZERO;
-        this.random = new Random(System.nanoTime());
     }
     @Override public Point3D weightPDF(Direction outgoing, Basis basis) {
         return this.albedo;
     }
-    @Override public PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh) {
-        double r1 = random.nextDouble();
-        double r2 = random.nextDouble();
+    @Override public PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh, Sampler sampler) {
+        double r1 = sampler.NextDouble();
+        double r2 = sampler.NextDouble();
 
         double phi = 2.0 * Math.PI * r1;
         double x = Math.cos(phi) * Math.sqrt(r2);
@@ -35,4 +30,18 @@ public class Lambertian implements Material {
     @Override public Point3D emittance(Direction outgoing, Basis basis){
         return emittance;
     }
+
+    @Override public boolean isDiffuse() {
+        return true;
+    }
+
+    @Override public Point3D evaluateBRDF(Direction outgoing, Direction incoming, Basis basis) {
+        if (incoming.getCosTheta() <= 0) return Point3D.ZERO;
+        return albedo.multiply(1 / Math.PI);
+    }
+
+    @Override public double pdf(Direction outgoing, Direction incoming, Basis basis) {
+        // Cosine weighted hemisphere
+        return incoming.getCosTheta() / Math.PI;
+    }
 }
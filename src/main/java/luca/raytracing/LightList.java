@@ -0,0 +1,88 @@
+package luca.raytracing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Emissive triangles of the scene for next event estimation. A light is picked with probability
+// proportional to its area and a point is picked uniformly on it, so every sampled point has
+// the same density 1 / TotalArea(). Emissive spheres and instances are never sampled.
+public class LightList {
+    private final TriangleSoup triangles;
+    private final int[] prims;
+    // Whether each triangle of the soup is one of prims
+    private final boolean[] sampled;
+    private final Point3D[] emission;
+    // Running total of light areas, the last entry is the total area
+    private final double[] cdf;
+
+    LightList(TriangleSoup triangles) {
+        this.triangles = triangles;
+        List<Integer> lights = new ArrayList<>();
+        List<Point3D> radiance = new ArrayList<>();
+        for (int prim = 0; prim < triangles.Size(); prim++) {
+            Point3D normal = triangles.GetNormal(prim);
+            Basis basis = new Basis(normal);
+            Point3D emitted = triangles.getMat(prim).emittance(new Direction(normal, basis), basis);
+            if (emitted.magnitude() == 0 || triangles.Area(prim) == 0) continue;
+            lights.add(prim);
+            radiance.add(emitted);
+        }
+        this.prims = lights.stream().mapToInt(Integer::intValue).toArray();
+        this.sampled = new boolean[triangles.Size()];
+        for (int prim : prims) sampled[prim] = true;
+        this.emission = radiance.toArray(new Point3D[0]);
+        this.cdf = new double[prims.length];
+        double total = 0;
+        for (int i = 0; i < prims.length; i++) {
+            total += triangles.Area(prims[i]);
+            cdf[i] = total;
+        }
+    }
+
+    public boolean IsEmpty() {
+        return prims.length == 0;
+    }
+
+    // Whether Sample can pick a point on triangle prim, false for -1
+    public boolean Contains(int prim) {
+        return prim >= 0 && sampled[prim];
+    }
+
+    public double TotalArea() {
+        return prims.length == 0 ? 0 : cdf[prims.length - 1];
+    }
+
+    // Solid angle density of Sample picking a point at squared distance distanceSquared whose
+    // normal makes cosLight with the direction towards it: 1 / TotalArea per unit area
+    public double Pdf(double distanceSquared, double cosLight) {
+        if (cosLight <= 0) return 0;
+        return distanceSquared / (cosLight * TotalArea());
+    }
+
+    // A point on a light: where it is, the side it emits towards and its radiance
+    public static class Sample {
+        final Point3D point;
+        final Point3D normal;
+        final Point3D emission;
+        Sample(Point3D point, Point3D normal, Point3D emission) {
+            this.point = point;
+            this.normal = normal;
+            this.emission = emission;
+        }
+    }
+
+    // u picks the light, v and w the point on it, all uniform in [0, 1)
+    public Sample Sample(double u, double v, double w) {
+        int i = Arrays.binarySearch(cdf, u * TotalArea());
+        i = Math.min(i < 0 ? -i - 1 : i, prims.length - 1);
+        int prim = prims[i];
+        // Uniform barycentrics: the square root keeps the density constant over the triangle
+        double s = Math.sqrt(v);
+        Point3D a = triangles.Vertex(prim, 0);
+        Point3D e1 = triangles.Vertex(prim, 1).subtract(a);
+        Point3D e2 = triangles.Vertex(prim, 2).subtract(a);
+        Point3D point = a.add(e1.multiply(s * (1 - w))).add(e2.multiply(s * w));
+        return new Sample(point, triangles.GetNormal(prim), emission[i]);
+    }
+}
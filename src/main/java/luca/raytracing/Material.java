@@ -4,8 +4,14 @@ public interface Material {
 
     Material EMPTY = null;
     Point3D weightPDF(Direction outgoing, Basis basis);
-    PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh);
+    PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh, Sampler sampler);
     Point3D emittance(Direction outgoing, Basis basis);
+    // Diffuse materials are lit by next event estimation, the rest only by the paths they scatter
+    boolean isDiffuse();
+    // BRDF value for light arriving along incoming and leaving along outgoing, zero for delta lobes
+    Point3D evaluateBRDF(Direction outgoing, Direction incoming, Basis basis);
+    // Solid angle density of samplePDF choosing incoming, zero for delta lobes
+    double pdf(Direction outgoing, Direction incoming, Basis basis);
     public class PostCollision {
         final Point3D outVector;
         final boolean isRefracted;
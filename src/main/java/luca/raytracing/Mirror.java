@@ -11,7 +11,7 @@ public class Mirror implements Material {
         return this.reflection;
     }
 
-    @Override public PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh) {
+    @Override public PostCollision samplePDF(Direction outgoing, Basis basis, boolean isInsideMesh, Sampler sampler) {
         return new PostCollision(reflect(outgoing, basis), false);
     }
 
@@ -19,6 +19,18 @@ public class Mirror implements Material {
         return emittance;
     }
 
+    @Override public boolean isDiffuse() {
+        return false;
+    }
+
+    @Override public Point3D evaluateBRDF(Direction outgoing, Direction incoming, Basis basis) {
+        return Point3D.ZERO;
+    }
+
+    @Override public double pdf(Direction outgoing, Direction incoming, Basis basis) {
+        return 0;
+    }
+
     public static Point3D reflect(Direction outgoing, Basis basis) {
         Point3D normal = basis.getNormal().normalize();
         Point3D incoming = outgoing.getVector().multiply(-1).normalize();
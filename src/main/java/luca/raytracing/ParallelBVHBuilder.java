@@ -0,0 +1,160 @@
+package luca.raytracing;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+// Top down binned SAH builder. Every node bins primitive centres on all three axes, evaluates
+// each split plane with a prefix and a suffix sweep over the bins, and only splits when that is
+// cheaper than intersecting every primitive in a leaf. Primitives are partitioned in place in one
+// index array and large subtrees are built in parallel with fork-join.
+public class ParallelBVHBuilder implements BVHBuilder {
+    private static final int BINS = 16;
+    // Cost of visiting a node relative to intersecting one primitive
+    private static final double TRAVERSAL_COST = 0.125;
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final double[] primBounds;
+    private final double[] centres;
+    private final int[] order;
+
+    ParallelBVHBuilder(PrimitiveSet set) {
+        int n = set.Size();
+        this.primBounds = new double[n * 6];
+        this.centres = new double[n * 3];
+        this.order = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            AABB box = set.Bounds(i);
+            primBounds[i * 6] = box.x.min;
+            primBounds[i * 6 + 1] = box.y.min;
+            primBounds[i * 6 + 2] = box.z.min;
+            primBounds[i * 6 + 3] = box.x.max;
+            primBounds[i * 6 + 4] = box.y.max;
+            primBounds[i * 6 + 5] = box.z.max;
+            for (int a = 0; a < 3; a++) {
+                centres[i * 3 + a] = (primBounds[i * 6 + a] + primBounds[i * 6 + a + 3]) / 2;
+            }
+            order[i] = i;
+        });
+    }
+
+    @Override
+    public BVHBuildNode Build() {
+        if (order.length == 0) return null;
+        return ForkJoinPool.commonPool().invoke(new BuildTask(0, order.length));
+    }
+
+    // Primitive indices in leaf order, leaves refer to ranges of this array
+    @Override
+    public int[] Order() {
+        return order;
+    }
+
+    private class BuildTask extends RecursiveTask<BVHBuildNode> {
+        private final int start;
+        private final int end;
+        BuildTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected BVHBuildNode compute() {
+            int count = end - start;
+            double[] bounds = BVHBuildNode.EmptyBounds();
+            double[] centreBounds = BVHBuildNode.EmptyBounds();
+            for (int i = start; i < end; i++) {
+                int p = order[i];
+                BVHBuildNode.Grow(bounds, 0, primBounds, p * 6);
+                for (int a = 0; a < 3; a++) {
+                    centreBounds[a] = Math.min(centreBounds[a], centres[p * 3 + a]);
+                    centreBounds[a + 3] = Math.max(centreBounds[a + 3], centres[p * 3 + a]);
+                }
+            }
+            if (count == 1) return BVHBuildNode.Leaf(bounds, start, count);
+
+            // Bin every axis, then sweep the bins from both ends to cost each split plane
+            double parentArea = BVHBuildNode.SurfaceArea(bounds, 0);
+            double bestCost = Double.POSITIVE_INFINITY;
+            int bestAxis = -1;
+            int bestSplit = -1;
+            int[] binCounts = new int[BINS];
+            double[] binBounds = new double[BINS * 6];
+            double[] suffixArea = new double[BINS];
+            int[] suffixCount = new int[BINS];
+            for (int axis = 0; axis < 3; axis++) {
+                double min = centreBounds[axis];
+                double extent = centreBounds[axis + 3] - min;
+                if (extent <= 0) continue;
+                Arrays.fill(binCounts, 0);
+                for (int b = 0; b < BINS; b++) BVHBuildNode.SetEmpty(binBounds, b * 6);
+                for (int i = start; i < end; i++) {
+                    int p = order[i];
+                    int b = Bin(centres[p * 3 + axis], min, extent);
+                    binCounts[b]++;
+                    BVHBuildNode.Grow(binBounds, b * 6, primBounds, p * 6);
+                }
+                double[] sweep = new double[6];
+                BVHBuildNode.SetEmpty(sweep, 0);
+                int sweepCount = 0;
+                for (int b = BINS - 1; b > 0; b--) {
+                    BVHBuildNode.Grow(sweep, 0, binBounds, b * 6);
+                    sweepCount += binCounts[b];
+                    suffixArea[b] = BVHBuildNode.SurfaceArea(sweep, 0);
+                    suffixCount[b] = sweepCount;
+                }
+                BVHBuildNode.SetEmpty(sweep, 0);
+                sweepCount = 0;
+                for (int b = 0; b < BINS - 1; b++) {
+                    BVHBuildNode.Grow(sweep, 0, binBounds, b * 6);
+                    sweepCount += binCounts[b];
+                    if (sweepCount == 0 || suffixCount[b + 1] == 0) continue;
+                    double cost = TRAVERSAL_COST + (sweepCount * BVHBuildNode.SurfaceArea(sweep, 0)
+                            + suffixCount[b + 1] * suffixArea[b + 1]) / parentArea;
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestSplit = b;
+                    }
+                }
+            }
+
+            // All centres coincide, or a leaf is cheaper and small enough
+            if (bestAxis == -1 || (bestCost >= count && count <= MAX_LEAF_SIZE)) {
+                return BVHBuildNode.Leaf(bounds, start, count);
+            }
+
+            // Partition in place around the chosen plane
+            double min = centreBounds[bestAxis];
+            double extent = centreBounds[bestAxis + 3] - min;
+            int mid = start;
+            for (int i = start; i < end; i++) {
+                if (Bin(centres[order[i] * 3 + bestAxis], min, extent) <= bestSplit) {
+                    int tmp = order[i];
+                    order[i] = order[mid];
+                    order[mid++] = tmp;
+                }
+            }
+
+            BuildTask leftTask = new BuildTask(start, mid);
+            BuildTask rightTask = new BuildTask(mid, end);
+            BVHBuildNode left, right;
+            if (count > PARALLEL_THRESHOLD) {
+                leftTask.fork();
+                right = rightTask.compute();
+                left = leftTask.join();
+            } else {
+                left = leftTask.compute();
+                right = rightTask.compute();
+            }
+            return BVHBuildNode.Interior(bounds, bestAxis, left, right);
+        }
+    }
+
+    private static int Bin(double centre, double min, double extent) {
+        int b = (int) ((centre - min) / extent * BINS);
+        return Math.min(Math.max(b, 0), BINS - 1);
+    }
+}
@@ -0,0 +1,45 @@
+package luca.raytracing;
+
+// A collection of primitives addressed by index, so acceleration structures can refer to them by int
+public interface PrimitiveSet {
+    int Size();
+    AABB Bounds(int prim);
+    Point3D Centre(int prim);
+    // Closest hit test against one primitive, records the set and index in hit
+    boolean Intersect(int prim, Ray ray, Hit hit);
+    WorldObject.Collision ToCollision(int prim, Ray ray, Hit hit);
+    // Any hit test against one primitive on the segment [hit.tMin, hit.t]
+    default boolean Occluded(int prim, Ray ray, Hit hit) {
+        return Intersect(prim, ray, hit);
+    }
+
+    // Mixes everything a BVH build reads about a primitive into the cache key h. Bounds and centre
+    // are all the default ClipBounds uses, sets that clip exactly hash their own geometry.
+    default long Hash(int prim, long h) {
+        AABB box = Bounds(prim);
+        Point3D centre = Centre(prim);
+        h = BVHCache.Mix(h, box.x.min);
+        h = BVHCache.Mix(h, box.y.min);
+        h = BVHCache.Mix(h, box.z.min);
+        h = BVHCache.Mix(h, box.x.max);
+        h = BVHCache.Mix(h, box.y.max);
+        h = BVHCache.Mix(h, box.z.max);
+        h = BVHCache.Mix(h, centre.getX());
+        h = BVHCache.Mix(h, centre.getY());
+        return BVHCache.Mix(h, centre.getZ());
+    }
+
+    // Bounds of the part of a primitive between lo and hi on axis, as min x, y, z then max x, y, z
+    // at out[o]. Clipping the bounding box is always conservative, sets override it to be exact.
+    default void ClipBounds(int prim, int axis, double lo, double hi, double[] out, int o) {
+        AABB box = Bounds(prim);
+        out[o] = box.x.min;
+        out[o + 1] = box.y.min;
+        out[o + 2] = box.z.min;
+        out[o + 3] = box.x.max;
+        out[o + 4] = box.y.max;
+        out[o + 5] = box.z.max;
+        out[o + axis] = Math.max(out[o + axis], lo);
+        out[o + axis + 3] = Math.min(out[o + axis + 3], hi);
+    }
+}
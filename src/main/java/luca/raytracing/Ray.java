@@ -4,23 +4,60 @@ public class Ray {
     private final Point3D origin;
     private final Point3D direction;
     private final Point3D directionInv;
-    private final boolean insideMesh;
+    private boolean insideMesh;
+    // Primitive copies of origin, direction and directionInv for the intersection kernels
+    double ox, oy, oz;
+    double dx, dy, dz;
+    double ix, iy, iz;
+    // Scratch ray for object space intersection, only the primitive fields are set. Its getters
+    // build their points from those fields, so they allocate and should stay off the hot path.
+    Ray() {
+        this.origin = null;
+        this.direction = null;
+        this.directionInv = null;
+    }
     Ray(Point3D origin, Point3D direction, boolean insideMesh) {
         this.origin = origin;
         this.direction = direction.normalize();
         this.insideMesh = insideMesh;
-        this.directionInv = VectorMath.Inverse(direction);
+        this.directionInv = VectorMath.Inverse(this.direction);
+        this.ox = origin.getX();
+        this.oy = origin.getY();
+        this.oz = origin.getZ();
+        this.dx = this.direction.getX();
+        this.dy = this.direction.getY();
+        this.dz = this.direction.getZ();
+        this.ix = directionInv.getX();
+        this.iy = directionInv.getY();
+        this.iz = directionInv.getZ();
+    }
+    // Direction is not normalised, so distances along it match the ray it was transformed from
+    void SetPrimitive(double ox, double oy, double oz, double dx, double dy, double dz, boolean insideMesh) {
+        this.ox = ox;
+        this.oy = oy;
+        this.oz = oz;
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        this.ix = 1.0 / dx;
+        this.iy = 1.0 / dy;
+        this.iz = 1.0 / dz;
+        this.insideMesh = insideMesh;
+    }
+    public Point3D getDirection() {
+        return direction != null ? direction : new Point3D(dx, dy, dz);
+    }
+    public Point3D getOrigin() {
+        return origin != null ? origin : new Point3D(ox, oy, oz);
     }
-    public Point3D getDirection() { return direction; }
-    public Point3D getOrigin() { return origin; }
 
     public Point3D getDirectionInv() {
-        return directionInv;
+        return directionInv != null ? directionInv : new Point3D(ix, iy, iz);
     }
 
     public Ray transform(Matrix transform, Point3D translate) {
-        Point3D p0 = transform.MultiplyPoint3D(origin).add(translate);
-        Point3D p1 = transform.MultiplyPoint3D(origin.add(direction)).add(translate);
+        Point3D p0 = transform.MultiplyPoint3D(getOrigin()).add(translate);
+        Point3D p1 = transform.MultiplyPoint3D(getOrigin().add(getDirection())).add(translate);
         return new Ray(p0, p1.subtract(p0), insideMesh);
     }
     public boolean IsInsideMesh() {
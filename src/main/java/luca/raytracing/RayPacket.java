@@ -0,0 +1,75 @@
+package luca.raytracing;
+
+import java.util.Optional;
+
+// A block of coherent rays, such as the camera rays of neighbouring pixels, traced through a
+// FlatBVH together. Each ray keeps its own Hit. The packet also keeps interval bounds over its
+// origins and inverse directions so a node can be culled for every ray with one test.
+public class RayPacket {
+    final Ray[] rays;
+    final Hit[] hits;
+    int size;
+    // Node and first active ray of each entry on the traversal stack
+    int[] nodeStack = new int[64];
+    int[] firstStack = new int[64];
+    // Rays that reach the leaf being intersected
+    final boolean[] active;
+    // Per axis: bounds over the packet's origins and inverse directions. An axis is only used for
+    // culling when every inverse direction is finite and has the same sign.
+    final double[] originMin = new double[3], originMax = new double[3];
+    final double[] inverseMin = new double[3], inverseMax = new double[3];
+    final boolean[] coherent = new boolean[3];
+
+    RayPacket(int capacity) {
+        rays = new Ray[capacity];
+        hits = new Hit[capacity];
+        active = new boolean[capacity];
+        for (int i = 0; i < capacity; i++) {
+            hits[i] = new Hit();
+        }
+    }
+
+    public void Clear() {
+        size = 0;
+    }
+
+    public void Add(Ray ray) {
+        rays[size] = ray;
+        hits[size].Reset();
+        size++;
+    }
+
+    public Ray getRay(int i) {
+        return rays[i];
+    }
+
+    public Optional<WorldObject.Collision> Collision(int i) {
+        if (hits[i].t == Double.POSITIVE_INFINITY) return Optional.empty();
+        return Optional.of(hits[i].ToCollision(rays[i]));
+    }
+
+    // Recomputes the interval bounds, call once all rays have been added
+    void ComputeBounds() {
+        for (int a = 0; a < 3; a++) {
+            originMin[a] = inverseMin[a] = Double.POSITIVE_INFINITY;
+            originMax[a] = inverseMax[a] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < size; i++) {
+            Ray ray = rays[i];
+            Include(0, ray.ox, ray.ix);
+            Include(1, ray.oy, ray.iy);
+            Include(2, ray.oz, ray.iz);
+        }
+        for (int a = 0; a < 3; a++) {
+            coherent[a] = !Double.isInfinite(inverseMin[a]) && !Double.isInfinite(inverseMax[a])
+                    && (inverseMin[a] > 0 || inverseMax[a] < 0);
+        }
+    }
+
+    private void Include(int axis, double origin, double inverse) {
+        originMin[axis] = Math.min(originMin[axis], origin);
+        originMax[axis] = Math.max(originMax[axis], origin);
+        inverseMin[axis] = Math.min(inverseMin[axis], inverse);
+        inverseMax[axis] = Math.max(inverseMax[axis], inverse);
+    }
+}
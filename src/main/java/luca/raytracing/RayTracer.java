@@ -8,59 +8,232 @@ public class RayTracer {
     // Compute intersection point between plane and ray
     // Compute if ray intersects inside polygon
     // the closest intersection returned
-    private final int maxDepth = 50;
-    private final List<WorldObject> world;
-    private final BVH BVHWorld;
-    RayTracer(List<MeshObject> meshes, List<Sphere> spheres) {
-        this.world = new ArrayList<>();
-        world.addAll(meshes);
-        world.addAll(spheres);
-
+    private final int maxDepth;
+    // Bounces before Russian roulette may end a path
+    private final int rouletteDepth = 3;
+    // Radiance of rays that leave the scene
+    static final Point3D BACKGROUND = new Point3D(0.1f, 0.1f, 0.1f);
+    // Refits that raise the SAH cost past this factor of the built tree's cost trigger a rebuild
+    private final double rebuildThreshold = 1.5;
+    private final SceneGeometry geometry;
+    // Emissive triangles sampled at every diffuse collision
+    private final LightList lights;
+    private final BVHBuilder.Settings builderSettings;
+    private FlatBVH BVHWorld;
+    // 4-wide copy of BVHWorld used for traversal when enabled, null otherwise
+    private WideBVH wideWorld;
+    private final ThreadLocal<Hit> hits = ThreadLocal.withInitial(Hit::new);
+    RayTracer(List<MeshObject> meshes, List<Sphere> spheres, List<Instance> instances, BVHBuilder.Settings builderSettings, BVHCache cache,
+              boolean wide, int maxDepth) {
+        this.maxDepth = maxDepth;
         List<Triangle> triangles = meshes.stream().flatMap(m -> m.HittableMesh().stream()).collect(Collectors.toList());
-        // triangles = BVH.TriangleListSubdivision(triangles);
+        // Only the flat copy is kept, the Triangle objects are not referenced after construction
+        geometry = new SceneGeometry(new TriangleSoup(triangles), spheres, instances);
+        this.builderSettings = builderSettings;
+        lights = new LightList(geometry.getTriangles());
 
-        List<Hittable> hittables = new ArrayList<>();
-        hittables.addAll(triangles);
-        hittables.addAll(spheres);
-        BVHWorld = new BVH(hittables);
-    }
-    private Optional<WorldObject.Collision> rayCollision(Ray ray) {
-        List<WorldObject.Collision> collisions = new ArrayList<>();
-        for (WorldObject obj : world) {
-            obj.Collision(ray).ifPresent(collisions::add);
+        long buildStart = System.nanoTime();
+        BVHWorld = cache != null ? cache.LoadOrBuild(builderSettings, geometry) : Build();
+        System.out.printf("%s BVH ready in %.1fms: %d primitives, %d nodes\n", builderSettings,
+                (System.nanoTime() - buildStart) / 1e6, geometry.Size(), BVHWorld.NodeCount());
+        if (wide) {
+            wideWorld = new WideBVH(BVHWorld, geometry);
+            System.out.printf("Wide BVH: %d nodes, %s slab test\n", wideWorld.NodeCount(),
+                    WideBVH.Vectorised() ? "vector" : "scalar");
+        }
+    }
+    private FlatBVH Build() {
+        BVHBuilder builder = BVHBuilder.Create(builderSettings, geometry);
+        return new FlatBVH(builder.Build(), builder.Order(), geometry);
+    }
+    public SceneGeometry getGeometry() {
+        return geometry;
+    }
+    // Updates the BVH after triangles, spheres or instances have moved, between frames only.
+    // The tree is refit in place and only rebuilt once it has degraded past rebuildThreshold.
+    // Trees with split references are always rebuilt, refitting would undo the spatial splits.
+    public void Refit() {
+        geometry.UpdateInstanceBounds();
+        if (BVHWorld.HasSplitReferences()) {
+            Rebuild("to keep its spatial splits");
+        } else {
+            BVHWorld.Refit();
+            double degradation = BVHWorld.Degradation();
+            if (degradation > rebuildThreshold) Rebuild(String.format("at %.2fx build cost", degradation));
         }
-        return collisions.stream().min(Comparator.comparingDouble(c -> (c.point.subtract(ray.getOrigin())).magnitude()));
+        if (wideWorld != null) wideWorld = new WideBVH(BVHWorld, geometry);
+    }
+    private void Rebuild(String reason) {
+        long buildStart = System.nanoTime();
+        BVHWorld = Build();
+        System.out.printf("BVH rebuilt %s in %.1fms\n", reason, (System.nanoTime() - buildStart) / 1e6);
+    }
+    FlatBVH getBVH() {
+        return BVHWorld;
+    }
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    Optional<WorldObject.Collision> rayCollisionBVH(Ray ray) {
+        Hit hit = hits.get();
+        if (!Intersect(ray, hit)) return Optional.empty();
+        return Optional.of(hit.ToCollision(ray));
     }
-    private Optional<WorldObject.Collision> rayCollisionBVH(Ray ray) {
-        return BVHWorld.Collision(ray);
+    // Allocation free closest hit query, hit is reset first
+    boolean Intersect(Ray ray, Hit hit) {
+        hit.Reset();
+        if (wideWorld != null) return wideWorld.Intersect(ray, hit);
+        return BVHWorld.Intersect(ray, hit);
+    }
+    // Allocation free any hit query, true if anything lies on the segment [tMin, tMax] of ray
+    boolean Occluded(Ray ray, double tMin, double tMax) {
+        Hit hit = hits.get();
+        if (wideWorld != null) return wideWorld.Occluded(ray, tMin, tMax, hit);
+        return BVHWorld.Occluded(ray, tMin, tMax, hit);
+    }
+    // Closest hits for a packet of coherent rays, the hits were reset as the rays were added
+    void Intersect(RayPacket packet) {
+        BVHWorld.Intersect(packet);
     }
     private Point3D vectorMultiply(Point3D v1, Point3D v2) {
         return new Point3D(v1.getX() * v2.getX(), v1.getY() * v2.getY(), v1.getZ() * v2.getZ());
     }
 
-    public Point3D traceRayRecursive(Ray ray, int depth) {
-        Optional<WorldObject.Collision> optCol = rayCollisionBVH(ray);
-        if (depth > maxDepth) {
-            return Point3D.ZERO;
+    // Follows a path from a collision that is already known, such as a packet's primary hit.
+    // Throughput is carried forward bounce by bounce, so the path ends as soon as it reaches a
+    // light, leaves the scene, passes maxDepth or loses the Russian roulette. Direct light is
+    // added at every collision, and a light reached straight after a collision that sampled the
+    // lights is weighted against that sample with EmissionWeight.
+    // Every random choice along the path is drawn from sampler.
+    public Point3D Shade(Ray ray, Optional<WorldObject.Collision> optCol, int depth, Sampler sampler) {
+        Point3D throughput = new Point3D(1, 1, 1);
+        Point3D radiance = Point3D.ZERO;
+        double pdf = 0;
+        while (depth <= maxDepth) {
+            if (!optCol.isPresent()) {
+                return radiance.add(vectorMultiply(throughput, BACKGROUND));
+            }
+            Interaction interaction = Interact(ray, optCol.get(), sampler);
+            if (interaction.emission != null) {
+                double weight = EmissionWeight(pdf, ray, optCol.get());
+                return radiance.add(vectorMultiply(throughput, interaction.emission).multiply(weight));
+            }
+            radiance = radiance.add(vectorMultiply(throughput, interaction.direct));
+            pdf = interaction.pdf;
+            throughput = vectorMultiply(throughput, interaction.weight);
+            double survival = Survival(throughput.getX(), throughput.getY(), throughput.getZ(), depth);
+            if (survival < 1) {
+                if (sampler.NextDouble() >= survival) return radiance;
+                throughput = throughput.multiply(1 / survival);
+            }
+            ray = interaction.next;
+            optCol = rayCollisionBVH(ray);
+            depth++;
         }
-        if (!optCol.isPresent()) {
-            return new Point3D(0.1f, 0.1f, 0.1f);
+        return radiance;
+    }
+
+    // Russian roulette: the chance a path continues after the bounce at depth. Paths that can
+    // only add little light are ended early, the survivors are weighted up to stay unbiased.
+    double Survival(double r, double g, double b, int depth) {
+        if (depth < rouletteDepth) return 1;
+        return Math.min(1, Math.max(r, Math.max(g, b)));
+    }
+
+    // Power heuristic weight of a sample drawn with pdf against another strategy's pdf
+    static double PowerHeuristic(double pdf, double otherPdf) {
+        double a = pdf * pdf, b = otherPdf * otherPdf;
+        return a + b == 0 ? 0 : a / (a + b);
+    }
+
+    // Multiple importance sampling weight of an emitter reached by a BRDF sample drawn with pdf.
+    // A pdf of 0 means the collision before did not sample the lights, and an emitter missing from
+    // the light list could not have been sampled either, so in both cases it counts in full.
+    double EmissionWeight(double pdf, Ray ray, WorldObject.Collision light) {
+        if (pdf == 0 || !lights.Contains(light.prim)) return 1;
+        // Collision.dist is already the squared distance along the ray
+        double cosLight = Math.abs(light.normal.normalize().dotProduct(ray.getDirection()));
+        return PowerHeuristic(pdf, lights.Pdf(light.dist, cosLight));
+    }
+
+    // Outcome of a path reaching a collision: either it ends on an emitter, or it gathers direct
+    // light from a sampled emitter and continues along next with its throughput scaled by weight.
+    // pdf is the solid angle density next was sampled with when the lights were also sampled,
+    // 0 when they were not or the direction came from a delta lobe.
+    static final class Interaction {
+        final Point3D emission;
+        final Point3D direct;
+        final double pdf;
+        final Point3D weight;
+        final Ray next;
+        Interaction(Point3D emission, Point3D direct, double pdf, Point3D weight, Ray next) {
+            this.emission = emission;
+            this.direct = direct;
+            this.pdf = pdf;
+            this.weight = weight;
+            this.next = next;
         }
-        WorldObject.Collision col = optCol.get();
+    }
+
+    // One bounce of the integrator, the wavefront path runs the same steps a batch at a time
+    Interaction Interact(Ray ray, WorldObject.Collision col, Sampler sampler) {
         Basis basis = new Basis(col.normal);
         Direction outgoing = new Direction(ray.getDirection().multiply(-1), basis);
+        Point3D emission = Emission(col, outgoing, basis);
+        if (emission != null) {
+            return new Interaction(emission, null, 0, null, null);
+        }
+        boolean sampleLights = SamplesLights(ray, col.mat);
+        Point3D direct = sampleLights ? SampleLights(col, col.mat, outgoing, basis, sampler) : Point3D.ZERO;
+        return Scatter(ray, col, outgoing, basis, sampleLights, direct, sampler);
+    }
 
-        Material mat = col.mat;
-        Point3D throughput = mat.weightPDF(outgoing, basis);
+    // Radiance a collision emits back along outgoing, null when its material does not emit
+    Point3D Emission(WorldObject.Collision col, Direction outgoing, Basis basis) {
+        Point3D emission = col.mat.emittance(outgoing, basis);
+        return emission.magnitude() != 0 ? emission : null;
+    }
 
-        if (mat.emittance(outgoing, basis).magnitude() != 0) { // i.e its a light
-            return mat.emittance(outgoing, basis);
-        }
+    // Next event estimation, only for diffuse surfaces seen from outside a mesh
+    boolean SamplesLights(Ray ray, Material mat) {
+        return mat.isDiffuse() && !ray.IsInsideMesh() && !lights.IsEmpty();
+    }
 
-        Material.PostCollision postCol = mat.samplePDF(outgoing, basis, ray.IsInsideMesh());
+    // Samples the BRDF at a collision that does not emit. direct is the light already gathered
+    // there, sampleLights whether it came from SampleLights so the new direction needs a pdf.
+    Interaction Scatter(Ray ray, WorldObject.Collision col, Direction outgoing, Basis basis, boolean sampleLights,
+                        Point3D direct, Sampler sampler) {
+        Material mat = col.mat;
+        Point3D throughput = mat.weightPDF(outgoing, basis);
+        Material.PostCollision postCol = mat.samplePDF(outgoing, basis, ray.IsInsideMesh(), sampler);
         boolean rayIsInsideMesh = ray.IsInsideMesh() ^ postCol.isRefracted;
         double offset = !rayIsInsideMesh ? 0.001 : -0.001;
         Ray newRay = new Ray(col.point.add(col.normal.multiply(offset)), postCol.outVector, rayIsInsideMesh);
-        return vectorMultiply(throughput, traceRayRecursive(newRay, depth + 1));
+        double pdf = sampleLights ? mat.pdf(outgoing, new Direction(newRay.getDirection(), basis), basis) : 0;
+        return new Interaction(null, direct, pdf, throughput, newRay);
+    }
+
+    // Direct light at a collision from one point sampled on the lights, or zero when the point
+    // faces away or a shadow ray towards it is blocked. Weighted against the chance that sampling
+    // the BRDF would have found the same point.
+    Point3D SampleLights(WorldObject.Collision col, Material mat, Direction outgoing, Basis basis, Sampler sampler) {
+        LightList.Sample light = lights.Sample(sampler.NextDouble(), sampler.NextDouble(), sampler.NextDouble());
+        Point3D origin = col.point.add(basis.getNormal().multiply(0.001));
+        Point3D toLight = light.point.subtract(origin);
+        double distance = toLight.magnitude();
+        if (distance == 0) return Point3D.ZERO;
+        Point3D wi = toLight.multiply(1 / distance);
+        double cosSurface = basis.getNormal().dotProduct(wi);
+        double cosLight = -light.normal.dotProduct(wi);
+        if (cosSurface <= 0 || cosLight <= 0) return Point3D.ZERO;
+
+        // Blocked when anything is hit clearly before the light itself
+        if (Occluded(new Ray(origin, wi, false), 0, distance * (1 - 1e-4))) return Point3D.ZERO;
+
+        Direction incoming = new Direction(wi, basis);
+        double lightPdf = lights.Pdf(distance * distance, cosLight);
+        double weight = PowerHeuristic(lightPdf, mat.pdf(outgoing, incoming, basis));
+        Point3D brdf = mat.evaluateBRDF(outgoing, incoming, basis);
+        return vectorMultiply(brdf, light.emission).multiply(cosSurface * weight / lightPdf);
     }
 }
@@ -0,0 +1,46 @@
+package luca.raytracing;
+
+// SplitMix64 random stream for path sampling. Each sample of each pixel is seeded from the render
+// seed and its (x, y, sample) coordinates, so it draws the same numbers whichever thread renders
+// it and in whatever order. Not thread safe, each worker thread keeps its own and reseeds it.
+public class Sampler {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private long state;
+
+    Sampler() {
+    }
+
+    Sampler(long seed) {
+        this.state = seed;
+    }
+
+    // Starts the stream of one sample of pixel (x, y)
+    public void Seed(long seed, int x, int y, int sample) {
+        long pixel = (long) x << 32 | (y & 0xFFFFFFFFL);
+        state = Mix(Mix(Mix(seed + GOLDEN_GAMMA) ^ pixel) ^ sample);
+    }
+
+    // The stream can be parked and resumed, for integrators that interleave many paths
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state;
+    }
+
+    public long NextLong() {
+        return Mix(state += GOLDEN_GAMMA);
+    }
+
+    // Uniform in [0, 1) from the top 53 bits
+    public double NextDouble() {
+        return (NextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private static long Mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
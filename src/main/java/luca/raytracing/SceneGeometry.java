@@ -0,0 +1,84 @@
+package luca.raytracing;
+
+import java.util.List;
+
+// Every primitive in the scene under one index space: triangles first, then spheres, then
+// instances. A BVH over this set is the top level of a two level structure, each instance
+// leaf descends into the shared BVH of its mesh.
+public class SceneGeometry implements PrimitiveSet {
+    private final TriangleSoup triangles;
+    private final Sphere[] spheres;
+    private final Instance[] instances;
+
+    SceneGeometry(TriangleSoup triangles, List<Sphere> spheres, List<Instance> instances) {
+        this.triangles = triangles;
+        this.spheres = spheres.toArray(new Sphere[0]);
+        this.instances = instances.toArray(new Instance[0]);
+    }
+
+    public TriangleSoup getTriangles() {
+        return triangles;
+    }
+
+    // Instance bounds follow their mesh, which may have been refit since they were placed
+    public void UpdateInstanceBounds() {
+        for (Instance instance : instances) instance.GenerateBoundingBox();
+    }
+
+    @Override
+    public int Size() {
+        return triangles.Size() + spheres.length + instances.length;
+    }
+
+    // Triangles and spheres are addressed directly, everything after them is an instance
+    private Hittable Object(int prim) {
+        prim -= triangles.Size();
+        if (prim < spheres.length) return spheres[prim];
+        return instances[prim - spheres.length];
+    }
+
+    @Override
+    public AABB Bounds(int prim) {
+        if (prim < triangles.Size()) return triangles.Bounds(prim);
+        return Object(prim).GetBoundingBox();
+    }
+
+    @Override
+    public Point3D Centre(int prim) {
+        if (prim < triangles.Size()) return triangles.Centre(prim);
+        return Object(prim).GetCentre();
+    }
+
+    @Override
+    public void ClipBounds(int prim, int axis, double lo, double hi, double[] out, int o) {
+        if (prim < triangles.Size()) triangles.ClipBounds(prim, axis, lo, hi, out, o);
+        else PrimitiveSet.super.ClipBounds(prim, axis, lo, hi, out, o);
+    }
+
+    @Override
+    public long Hash(int prim, long h) {
+        if (prim < triangles.Size()) return triangles.Hash(prim, h);
+        return PrimitiveSet.super.Hash(prim, h);
+    }
+
+    @Override
+    public boolean Intersect(int prim, Ray ray, Hit hit) {
+        if (prim >= triangles.Size() + spheres.length) return Object(prim).Intersect(ray, hit);
+        boolean found = prim < triangles.Size() ? triangles.Intersect(prim, ray, hit) : Object(prim).Intersect(ray, hit);
+        // A closer world space hit replaces any earlier instance hit
+        if (found) hit.instance = null;
+        return found;
+    }
+
+    @Override
+    public boolean Occluded(int prim, Ray ray, Hit hit) {
+        if (prim < triangles.Size()) return triangles.Intersect(prim, ray, hit);
+        return Object(prim).Occluded(ray, hit);
+    }
+
+    @Override
+    public WorldObject.Collision ToCollision(int prim, Ray ray, Hit hit) {
+        if (prim < triangles.Size()) return triangles.ToCollision(prim, ray, hit);
+        return Object(prim).ToCollision(ray, hit);
+    }
+}
@@ -0,0 +1,414 @@
+package luca.raytracing;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Split BVH (Stich et al. 2009). Every node costs a binned object split as in ParallelBVHBuilder
+// and, where the object split's children overlap, a binned spatial split that cuts references
+// straddling the plane into two clipped references. The primitives are never modified, a
+// primitive cut by a spatial split is listed in both subtrees with tighter bounds in each, so
+// long thin triangles no longer stretch every node they pass through. Splitting stops once the
+// duplication budget, extra references as a fraction of the primitive count, is used up.
+public class SpatialSplitBVHBuilder implements BVHBuilder {
+    static final double DEFAULT_DUPLICATION_BUDGET = 0.3;
+    private static final int BINS = 16;
+    // Cost of visiting a node relative to intersecting one primitive
+    private static final double TRAVERSAL_COST = 0.125;
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final int PARALLEL_THRESHOLD = 4096;
+    // Spatial splits are only searched when the object split children overlap by more than
+    // this fraction of the root's surface area
+    private static final double OVERLAP_THRESHOLD = 1e-5;
+
+    private final PrimitiveSet set;
+    private final AtomicInteger budget;
+    private double rootArea;
+    private int[] order = new int[0];
+
+    SpatialSplitBVHBuilder(PrimitiveSet set, double duplicationBudget) {
+        this.set = set;
+        this.budget = new AtomicInteger((int) (set.Size() * duplicationBudget));
+    }
+
+    @Override
+    public BVHBuildNode Build() {
+        int n = set.Size();
+        if (n == 0) return null;
+        int[] prims = new int[n];
+        double[] boxes = new double[n * 6];
+        double[] root = BVHBuildNode.EmptyBounds();
+        for (int i = 0; i < n; i++) {
+            AABB box = set.Bounds(i);
+            prims[i] = i;
+            boxes[i * 6] = box.x.min;
+            boxes[i * 6 + 1] = box.y.min;
+            boxes[i * 6 + 2] = box.z.min;
+            boxes[i * 6 + 3] = box.x.max;
+            boxes[i * 6 + 4] = box.y.max;
+            boxes[i * 6 + 5] = box.z.max;
+            BVHBuildNode.Grow(root, 0, boxes, i * 6);
+        }
+        rootArea = BVHBuildNode.SurfaceArea(root, 0);
+        OrderList out = new OrderList(n);
+        BVHBuildNode node = ForkJoinPool.commonPool().invoke(new BuildTask(prims, boxes, out));
+        order = Arrays.copyOf(out.indices, out.size);
+        return node;
+    }
+
+    // Primitive indices in leaf order, a primitive cut by spatial splits appears once per leaf it reaches
+    @Override
+    public int[] Order() {
+        return order;
+    }
+
+    private class BuildTask extends RecursiveTask<BVHBuildNode> {
+        // References: a primitive index and the part of its bounds inside this node
+        private final int[] prims;
+        private final double[] boxes;
+        private final OrderList out;
+
+        BuildTask(int[] prims, double[] boxes, OrderList out) {
+            this.prims = prims;
+            this.boxes = boxes;
+            this.out = out;
+        }
+
+        @Override
+        protected BVHBuildNode compute() {
+            int count = prims.length;
+            double[] bounds = BVHBuildNode.EmptyBounds();
+            double[] centreBounds = BVHBuildNode.EmptyBounds();
+            for (int i = 0; i < count; i++) {
+                BVHBuildNode.Grow(bounds, 0, boxes, i * 6);
+                for (int a = 0; a < 3; a++) {
+                    double centre = Centre(i, a);
+                    centreBounds[a] = Math.min(centreBounds[a], centre);
+                    centreBounds[a + 3] = Math.max(centreBounds[a + 3], centre);
+                }
+            }
+            if (count == 1) return Leaf(bounds);
+
+            double parentArea = BVHBuildNode.SurfaceArea(bounds, 0);
+            ObjectSplit object = FindObjectSplit(centreBounds, parentArea);
+            SpatialSplit spatial = null;
+            if (object == null || Overlap(object.left, object.right) > OVERLAP_THRESHOLD * rootArea) {
+                spatial = FindSpatialSplit(bounds, parentArea);
+            }
+            double objectCost = object != null ? object.cost : Double.POSITIVE_INFINITY;
+            double spatialCost = spatial != null ? spatial.cost : Double.POSITIVE_INFINITY;
+            double bestCost = Math.min(objectCost, spatialCost);
+            // Nothing separates the references, or a leaf is cheaper and small enough
+            if (bestCost == Double.POSITIVE_INFINITY || (bestCost >= count && count <= MAX_LEAF_SIZE)) {
+                return Leaf(bounds);
+            }
+
+            BuildTask[] children = null;
+            int axis;
+            if (spatialCost < objectCost) {
+                children = PartitionSpatial(spatial);
+                axis = spatial.axis;
+            } else {
+                axis = object.axis;
+            }
+            // Unsplitting can leave one side of a spatial split empty, fall back to the object split
+            if (children == null) {
+                if (object == null) return Leaf(bounds);
+                children = PartitionObject(object, centreBounds);
+                axis = object.axis;
+            }
+
+            BVHBuildNode left, right;
+            if (count > PARALLEL_THRESHOLD) {
+                // The right subtree fills its own order list, spliced in after the left subtree
+                OrderList rightOut = new OrderList(children[1].prims.length);
+                BuildTask rightTask = new BuildTask(children[1].prims, children[1].boxes, rightOut);
+                rightTask.fork();
+                left = children[0].compute();
+                right = rightTask.join();
+                Shift(right, out.size);
+                out.AddAll(rightOut.indices, rightOut.size);
+            } else {
+                left = children[0].compute();
+                right = children[1].compute();
+            }
+            return BVHBuildNode.Interior(bounds, axis, left, right);
+        }
+
+        private BVHBuildNode Leaf(double[] bounds) {
+            int first = out.size;
+            out.AddAll(prims, prims.length);
+            return BVHBuildNode.Leaf(bounds, first, prims.length);
+        }
+
+        private double Centre(int ref, int axis) {
+            return (boxes[ref * 6 + axis] + boxes[ref * 6 + axis + 3]) / 2;
+        }
+
+        // Binned SAH over reference centres, the same search ParallelBVHBuilder makes
+        private ObjectSplit FindObjectSplit(double[] centreBounds, double parentArea) {
+            int count = prims.length;
+            ObjectSplit best = null;
+            int[] binCounts = new int[BINS];
+            double[] binBounds = new double[BINS * 6];
+            double[] suffixBounds = new double[BINS * 6];
+            int[] suffixCount = new int[BINS];
+            for (int axis = 0; axis < 3; axis++) {
+                double min = centreBounds[axis];
+                double extent = centreBounds[axis + 3] - min;
+                if (extent <= 0) continue;
+                Arrays.fill(binCounts, 0);
+                for (int b = 0; b < BINS; b++) BVHBuildNode.SetEmpty(binBounds, b * 6);
+                for (int i = 0; i < count; i++) {
+                    int b = Bin(Centre(i, axis), min, extent);
+                    binCounts[b]++;
+                    BVHBuildNode.Grow(binBounds, b * 6, boxes, i * 6);
+                }
+                double[] sweep = BVHBuildNode.EmptyBounds();
+                int sweepCount = 0;
+                for (int b = BINS - 1; b > 0; b--) {
+                    BVHBuildNode.Grow(sweep, 0, binBounds, b * 6);
+                    sweepCount += binCounts[b];
+                    System.arraycopy(sweep, 0, suffixBounds, b * 6, 6);
+                    suffixCount[b] = sweepCount;
+                }
+                BVHBuildNode.SetEmpty(sweep, 0);
+                sweepCount = 0;
+                for (int b = 0; b < BINS - 1; b++) {
+                    BVHBuildNode.Grow(sweep, 0, binBounds, b * 6);
+                    sweepCount += binCounts[b];
+                    if (sweepCount == 0 || suffixCount[b + 1] == 0) continue;
+                    double cost = TRAVERSAL_COST + (sweepCount * BVHBuildNode.SurfaceArea(sweep, 0)
+                            + suffixCount[b + 1] * BVHBuildNode.SurfaceArea(suffixBounds, (b + 1) * 6)) / parentArea;
+                    if (best == null || cost < best.cost) {
+                        best = new ObjectSplit(axis, b, cost, sweep.clone(),
+                                Arrays.copyOfRange(suffixBounds, (b + 1) * 6, (b + 2) * 6));
+                    }
+                }
+            }
+            return best;
+        }
+
+        // Binned SAH over planes through the node bounds. Each reference is clipped into every
+        // bin it spans and counted as entering its first bin and leaving its last.
+        private SpatialSplit FindSpatialSplit(double[] bounds, double parentArea) {
+            if (budget.get() <= 0) return null;
+            int count = prims.length;
+            SpatialSplit best = null;
+            int[] entries = new int[BINS];
+            int[] exits = new int[BINS];
+            double[] binBounds = new double[BINS * 6];
+            double[] suffixBounds = new double[BINS * 6];
+            int[] suffixCount = new int[BINS];
+            double[] clipped = new double[6];
+            for (int axis = 0; axis < 3; axis++) {
+                double min = bounds[axis];
+                double extent = bounds[axis + 3] - min;
+                if (extent <= 0) continue;
+                Arrays.fill(entries, 0);
+                Arrays.fill(exits, 0);
+                for (int b = 0; b < BINS; b++) BVHBuildNode.SetEmpty(binBounds, b * 6);
+                for (int i = 0; i < count; i++) {
+                    int first = Bin(boxes[i * 6 + axis], min, extent);
+                    int last = Bin(boxes[i * 6 + axis + 3], min, extent);
+                    entries[first]++;
+                    exits[last]++;
+                    for (int b = first; b <= last; b++) {
+                        Clip(i, axis, Plane(min, extent, b), Plane(min, extent, b + 1), clipped);
+                        BVHBuildNode.Grow(binBounds, b * 6, clipped, 0);
+                    }
+                }
+                double[] sweep = BVHBuildNode.EmptyBounds();
+                int sweepCount = 0;
+                for (int b = BINS - 1; b > 0; b--) {
+                    BVHBuildNode.Grow(sweep, 0, binBounds, b * 6);
+                    sweepCount += exits[b];
+                    System.arraycopy(sweep, 0, suffixBounds, b * 6, 6);
+                    suffixCount[b] = sweepCount;
+                }
+                BVHBuildNode.SetEmpty(sweep, 0);
+                sweepCount = 0;
+                for (int b = 0; b < BINS - 1; b++) {
+                    BVHBuildNode.Grow(sweep, 0, binBounds, b * 6);
+                    sweepCount += entries[b];
+                    int rightCount = suffixCount[b + 1];
+                    if (sweepCount == 0 || rightCount == 0) continue;
+                    // Splitting more references than the remaining budget allows is not an option
+                    if (sweepCount + rightCount - count > budget.get()) continue;
+                    double cost = TRAVERSAL_COST + (sweepCount * BVHBuildNode.SurfaceArea(sweep, 0)
+                            + rightCount * BVHBuildNode.SurfaceArea(suffixBounds, (b + 1) * 6)) / parentArea;
+                    if (best == null || cost < best.cost) {
+                        best = new SpatialSplit(axis, Plane(min, extent, b + 1), cost, sweep.clone(),
+                                Arrays.copyOfRange(suffixBounds, (b + 1) * 6, (b + 2) * 6), sweepCount, rightCount);
+                    }
+                }
+            }
+            return best;
+        }
+
+        private BuildTask[] PartitionObject(ObjectSplit split, double[] centreBounds) {
+            double min = centreBounds[split.axis];
+            double extent = centreBounds[split.axis + 3] - min;
+            References left = new References(prims.length), right = new References(prims.length);
+            for (int i = 0; i < prims.length; i++) {
+                References side = Bin(Centre(i, split.axis), min, extent) <= split.bin ? left : right;
+                side.Add(prims[i], boxes, i * 6);
+            }
+            return new BuildTask[]{left.Task(out), right.Task(out)};
+        }
+
+        // Returns null if every reference ends up on one side
+        private BuildTask[] PartitionSpatial(SpatialSplit split) {
+            int axis = split.axis;
+            References left = new References(prims.length), right = new References(prims.length);
+            double[] leftPart = new double[6], rightPart = new double[6], grown = new double[6];
+            for (int i = 0; i < prims.length; i++) {
+                int b = i * 6;
+                if (boxes[b + axis + 3] <= split.plane) {
+                    left.Add(prims[i], boxes, b);
+                    continue;
+                }
+                if (boxes[b + axis] >= split.plane) {
+                    right.Add(prims[i], boxes, b);
+                    continue;
+                }
+                // Reference unsplitting: keep the whole reference on one side when that is cheaper
+                // than paying for it on both
+                Clip(i, axis, boxes[b + axis], split.plane, leftPart);
+                Clip(i, axis, split.plane, boxes[b + axis + 3], rightPart);
+                double leftArea = BVHBuildNode.SurfaceArea(split.left, 0);
+                double rightArea = BVHBuildNode.SurfaceArea(split.right, 0);
+                double splitCost = leftArea * split.leftCount + rightArea * split.rightCount;
+                System.arraycopy(split.left, 0, grown, 0, 6);
+                BVHBuildNode.Grow(grown, 0, boxes, b);
+                double leftOnlyCost = BVHBuildNode.SurfaceArea(grown, 0) * split.leftCount + rightArea * (split.rightCount - 1);
+                System.arraycopy(split.right, 0, grown, 0, 6);
+                BVHBuildNode.Grow(grown, 0, boxes, b);
+                double rightOnlyCost = leftArea * (split.leftCount - 1) + BVHBuildNode.SurfaceArea(grown, 0) * split.rightCount;
+                if (leftOnlyCost <= Math.min(splitCost, rightOnlyCost)) {
+                    left.Add(prims[i], boxes, b);
+                } else if (rightOnlyCost <= splitCost) {
+                    right.Add(prims[i], boxes, b);
+                } else if (budget.getAndDecrement() > 0) {
+                    left.Add(prims[i], leftPart, 0);
+                    right.Add(prims[i], rightPart, 0);
+                } else {
+                    // Another subtree spent the budget first
+                    budget.incrementAndGet();
+                    References side = leftOnlyCost <= rightOnlyCost ? left : right;
+                    side.Add(prims[i], boxes, b);
+                }
+            }
+            if (left.size == 0 || right.size == 0) return null;
+            return new BuildTask[]{left.Task(out), right.Task(out)};
+        }
+
+        // Bounds of the part of reference i between lo and hi on axis, empty if there is none
+        private void Clip(int i, int axis, double lo, double hi, double[] clipped) {
+            set.ClipBounds(prims[i], axis, lo, hi, clipped, 0);
+            for (int a = 0; a < 3; a++) {
+                clipped[a] = Math.max(clipped[a], boxes[i * 6 + a]);
+                clipped[a + 3] = Math.min(clipped[a + 3], boxes[i * 6 + a + 3]);
+                if (clipped[a] > clipped[a + 3]) {
+                    BVHBuildNode.SetEmpty(clipped, 0);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static double Overlap(double[] a, double[] b) {
+        double[] overlap = new double[6];
+        for (int i = 0; i < 3; i++) {
+            overlap[i] = Math.max(a[i], b[i]);
+            overlap[i + 3] = Math.min(a[i + 3], b[i + 3]);
+        }
+        return BVHBuildNode.SurfaceArea(overlap, 0);
+    }
+
+    // Offsets the leaves of a subtree built into a separate order list
+    private static void Shift(BVHBuildNode node, int offset) {
+        if (node.IsLeaf()) {
+            node.first += offset;
+            return;
+        }
+        Shift(node.left, offset);
+        Shift(node.right, offset);
+    }
+
+    private static double Plane(double min, double extent, int bin) {
+        return bin == BINS ? min + extent : min + extent * bin / BINS;
+    }
+
+    private static int Bin(double centre, double min, double extent) {
+        int b = (int) ((centre - min) / extent * BINS);
+        return Math.min(Math.max(b, 0), BINS - 1);
+    }
+
+    private static class ObjectSplit {
+        final int axis;
+        final int bin;
+        final double cost;
+        final double[] left, right;
+        ObjectSplit(int axis, int bin, double cost, double[] left, double[] right) {
+            this.axis = axis;
+            this.bin = bin;
+            this.cost = cost;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static class SpatialSplit {
+        final int axis;
+        final double plane;
+        final double cost;
+        final double[] left, right;
+        final int leftCount, rightCount;
+        SpatialSplit(int axis, double plane, double cost, double[] left, double[] right, int leftCount, int rightCount) {
+            this.axis = axis;
+            this.plane = plane;
+            this.cost = cost;
+            this.left = left;
+            this.right = right;
+            this.leftCount = leftCount;
+            this.rightCount = rightCount;
+        }
+    }
+
+    // Growable reference list for one side of a split
+    private class References {
+        int[] prims;
+        double[] boxes;
+        int size;
+        References(int capacity) {
+            prims = new int[capacity];
+            boxes = new double[capacity * 6];
+        }
+
+        void Add(int prim, double[] box, int b) {
+            prims[size] = prim;
+            System.arraycopy(box, b, boxes, size * 6, 6);
+            size++;
+        }
+
+        BuildTask Task(OrderList out) {
+            return new BuildTask(Arrays.copyOf(prims, size), Arrays.copyOf(boxes, size * 6), out);
+        }
+    }
+
+    private static class OrderList {
+        int[] indices;
+        int size;
+        OrderList(int capacity) {
+            indices = new int[Math.max(capacity, 1)];
+        }
+
+        void AddAll(int[] values, int count) {
+            if (size + count > indices.length) indices = Arrays.copyOf(indices, Math.max(size + count, indices.length * 2));
+            System.arraycopy(values, 0, indices, size, count);
+            size += count;
+        }
+    }
+}
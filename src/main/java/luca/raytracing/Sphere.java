@@ -44,44 +44,38 @@ public class Sphere extends WorldObject implements Poly, Hittable {
 
     @Override
     public Optional<Point3D> HitLoc(Ray ray) {
+        double t = HitDistance(ray);
+        if (Double.isNaN(t)) return Optional.empty();
+        return Optional.of(new Point3D(ray.ox + ray.dx * t, ray.oy + ray.dy * t, ray.oz + ray.dz * t));
+    }
+
+    // Distance along the ray to the closer collision in front of the origin, NaN if there is none
+    private double HitDistance(Ray ray) {
         // Sphere: r^2 = (P - C)^2 = P^2 - 2PC + C^2
         // Line: P = p0 + tV
         // Determinant: b^2 - 4ac
-        final Point3D v = ray.getDirection();
-        final Point3D p0 = ray.getOrigin();
-        final double a = v.dotProduct(v);
-        final double b = 2.0 * (v.dotProduct(p0) - v.dotProduct(centre));
-        final double c = -2.0 * (p0.dotProduct(centre)) + centre.dotProduct(centre) + p0.dotProduct(p0) - (radius * radius);
+        final double cx = centre.getX(), cy = centre.getY(), cz = centre.getZ();
+        final double a = ray.dx * ray.dx + ray.dy * ray.dy + ray.dz * ray.dz;
+        final double b = 2.0 * ((ray.dx * ray.ox + ray.dy * ray.oy + ray.dz * ray.oz) - (ray.dx * cx + ray.dy * cy + ray.dz * cz));
+        final double c = -2.0 * (ray.ox * cx + ray.oy * cy + ray.oz * cz) + (cx * cx + cy * cy + cz * cz)
+                + (ray.ox * ray.ox + ray.oy * ray.oy + ray.oz * ray.oz) - (radius * radius);
         final double determinant = (b * b) - (4.0 * a * c);
         if (determinant == 0) {
-            double t = -b / (2.0 * a);
-            Point3D c1 = p0.add(v.multiply(t));
-            return Optional.of(c1);
+            return -b / (2.0 * a);
         } else if (determinant > 0) {
             // Use closer collision point
             double t1 = (-b + Math.sqrt(determinant)) / (2.0 * a);
             double t2 = (-b - Math.sqrt(determinant)) / (2.0 * a);
-            Point3D c1 = p0.add(v.multiply(t1));
-            Point3D c2 = p0.add(v.multiply(t2));
-            Point3D closer;
-            Point3D further;
-            if (VectorMath.Length2(c1.subtract(p0)) <= VectorMath.Length2(c2.subtract(p0))) {
-                closer = c1;
-                further = c2;
-            } else {
-                closer = c2;
-                further = c1;
-            }
-            boolean closerBehind = (closer.subtract(p0)).dotProduct(v) < 0;
-            boolean furtherBehind = (further.subtract(p0).dotProduct(v)) < 0;
-            if (!closerBehind) {
-                return Optional.of(closer);
-            } else if (!furtherBehind) {
-                return Optional.of(further);
+            double closer = Math.abs(t1) <= Math.abs(t2) ? t1 : t2;
+            double further = closer == t1 ? t2 : t1;
+            if (closer >= 0) {
+                return closer;
+            } else if (further >= 0) {
+                return further;
             }
         }
         // No Roots
-        return Optional.empty();
+        return Double.NaN;
     }
 
     @Override
@@ -107,24 +101,38 @@ public class Sphere extends WorldObject implements Poly, Hittable {
         this.bbox = new AABB(min, max);
     }
 
+    // Refit the BVH holding this sphere after moving it
+    public void Move(Point3D pos) {
+        setPos(pos);
+        this.centre = pos;
+        GenerateBoundingBox();
+    }
+
     @Override
     public Optional<Collision> Collision(Ray ray) {
-        Optional<Point3D> optLoc = HitLoc(ray);
-        if (optLoc.isPresent()) {
-            Point3D loc = optLoc.get();
-            Point3D normal = loc.subtract(centre);
-
-            boolean rayTowardsNormal = ray.getDirection().dotProduct(normal) < 0.0;
-            boolean collisionAfterOrigin = ray.getDirection().dotProduct(loc.subtract(ray.getOrigin())) > 0.0;
-            double dist = VectorMath.Length2(loc.subtract(ray.getOrigin()));
-            if (!ray.IsInsideMesh() && rayTowardsNormal && collisionAfterOrigin) {
-                return Optional.of(new Collision(loc, getMat(), normal, dist));
-            }
-            else if (ray.IsInsideMesh() && !rayTowardsNormal && collisionAfterOrigin) {
-                return Optional.of(new Collision(loc, getMat(), normal, dist));
-            }
-        }
-        return Optional.empty();
+        return Hittable.super.Collision(ray);
+    }
+
+    @Override
+    public boolean Intersect(Ray ray, Hit hit) {
+        double t = HitDistance(ray);
+        if (Double.isNaN(t) || t <= hit.tMin || t >= hit.t) return false;
+        double nx = ray.ox + ray.dx * t - centre.getX();
+        double ny = ray.oy + ray.dy * t - centre.getY();
+        double nz = ray.oz + ray.dz * t - centre.getZ();
+
+        boolean rayTowardsNormal = ray.dx * nx + ray.dy * ny + ray.dz * nz < 0.0;
+        if (ray.IsInsideMesh() == rayTowardsNormal) return false;
+        hit.t = t;
+        hit.object = this;
+        hit.set = null;
+        return true;
+    }
+
+    @Override
+    public Collision ToCollision(Ray ray, Hit hit) {
+        Point3D loc = new Point3D(ray.ox + ray.dx * hit.t, ray.oy + ray.dy * hit.t, ray.oz + ray.dz * hit.t);
+        return new Collision(loc, getMat(), loc.subtract(centre), hit.t * hit.t);
     }
 
     @Override
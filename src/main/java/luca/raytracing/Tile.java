@@ -0,0 +1,24 @@
+package luca.raytracing;
+
+// A rectangular region of the frame, [x0, x1) x [y0, y1)
+public class Tile {
+    final int x0, y0;
+    final int x1, y1;
+
+    Tile(int x0, int y0, int x1, int y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+    }
+
+    public int Width() {
+        return x1 - x0;
+    }
+    public int Height() {
+        return y1 - y0;
+    }
+    public int PixelCount() {
+        return Width() * Height();
+    }
+}
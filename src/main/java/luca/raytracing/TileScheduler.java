@@ -0,0 +1,123 @@
+package luca.raytracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Splits the frame into square tiles and hands whole tiles to a work-stealing pool.
+// Tiles stream through their samples independently: each claim renders a few samples
+// of every pixel in the tile and then requeues the tile, so there is no per-sample barrier.
+public class TileScheduler {
+    public interface TileRenderer {
+        void Render(Tile tile, int firstSample, int samples);
+    }
+
+    private final ForkJoinPool pool;
+    private final List<Tile> tiles;
+    private AtomicIntegerArray tileSamples;
+    private final AtomicLong pixelSamples = new AtomicLong();
+    private CountDownLatch remaining;
+    private volatile RuntimeException failure;
+
+    TileScheduler(int width, int height, int tileSize, int threads) {
+        // Async mode keeps the worker queues FIFO so requeued tiles take turns
+        this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Tile(x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height)));
+            }
+        }
+    }
+
+    // Queue samples [firstSample, lastSample) of every tile, rendering samplesPerClaim at a time
+    public void Start(TileRenderer renderer, int firstSample, int lastSample, int samplesPerClaim) {
+        tileSamples = new AtomicIntegerArray(tiles.size());
+        remaining = new CountDownLatch(tiles.size());
+        for (int i = 0; i < tiles.size(); i++) {
+            tileSamples.set(i, firstSample);
+            pool.execute(new TileTask(renderer, i, firstSample, lastSample, samplesPerClaim));
+        }
+    }
+
+    // Returns true once every tile has rendered all of its samples
+    public boolean AwaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean done = remaining.await(timeout, unit);
+        if (failure != null) throw new RuntimeException("Tile rendering failed", failure);
+        return done;
+    }
+
+    // Number of samples that every pixel in the frame has completed
+    public int CompletedSamples() {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < tileSamples.length(); i++) {
+            min = Math.min(min, tileSamples.get(i));
+        }
+        return min;
+    }
+
+    // Copy of frameBuffer with whole samples only. Claims hold their tile's monitor while they
+    // render, so each tile is copied between two of its claims. There is no global pause: only
+    // the claim of the tile being copied waits, every other tile keeps rendering.
+    public FrameBuffer Snapshot(FrameBuffer frameBuffer) {
+        FrameBuffer copy = new FrameBuffer(frameBuffer.getWidth(), frameBuffer.getHeight());
+        for (Tile tile : tiles) {
+            synchronized (tile) {
+                frameBuffer.CopyTile(tile, copy);
+            }
+        }
+        return copy;
+    }
+
+    // Total pixel samples rendered since the scheduler was created
+    public long PixelSamples() {
+        return pixelSamples.get();
+    }
+
+    public void Shutdown() {
+        pool.shutdown();
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final TileRenderer renderer;
+        private final int tileIndex;
+        private final int firstSample;
+        private final int lastSample;
+        private final int samplesPerClaim;
+        TileTask(TileRenderer renderer, int tileIndex, int firstSample, int lastSample, int samplesPerClaim) {
+            this.renderer = renderer;
+            this.tileIndex = tileIndex;
+            this.firstSample = firstSample;
+            this.lastSample = lastSample;
+            this.samplesPerClaim = samplesPerClaim;
+        }
+
+        @Override
+        protected void compute() {
+            Tile tile = tiles.get(tileIndex);
+            int samples = Math.min(samplesPerClaim, lastSample - firstSample);
+            try {
+                synchronized (tile) {
+                    renderer.Render(tile, firstSample, samples);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+                while (remaining.getCount() > 0) remaining.countDown();
+                return;
+            }
+            int next = firstSample + samples;
+            tileSamples.set(tileIndex, next);
+            pixelSamples.addAndGet((long) samples * tile.PixelCount());
+            if (next < lastSample && failure == null) {
+                new TileTask(renderer, tileIndex, next, lastSample, samplesPerClaim).fork();
+            } else {
+                remaining.countDown();
+            }
+        }
+    }
+}
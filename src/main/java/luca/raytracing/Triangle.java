@@ -4,11 +4,14 @@ import java.util.*;
 
 public class Triangle implements Poly, Hittable {
     private Point3D normal;
-    private double d;
     private final HashMap<String, Line> lines = new HashMap<>();
     private AABB bbox;
     private Material mat;
     private final Point3D centre;
+    // Vertices, edges (e1 = B - A, e2 = C - A) and normal as primitives for the intersection kernel
+    private double ax, ay, az, bx, by, bz, cx, cy, cz;
+    private double e1x, e1y, e1z, e2x, e2y, e2z;
+    private double nx, ny, nz;
     public String id;
     Triangle(Material mat, Point3D p1, Point3D p2, Point3D p3) {
         lines.put("p1p2", WorldObject.PointsToLine(p1, p2));
@@ -34,26 +37,33 @@ public class Triangle implements Poly, Hittable {
     }
     public void ComputeNormal() {
         this.normal = lines.get("p1p2").crossProduct(lines.get("p2p3"));
-        this.d = lines.get("p1p2").getP0().dotProduct(normal);
+        CacheScalars();
     }
     public void FlipNormal() {
         normal = normal.multiply(-1);
-        d = lines.get("p1p2").getP0().dotProduct(normal);
+        CacheScalars();
+    }
+    private void CacheScalars() {
+        Point3D A = lines.get("p1p2").getP0();
+        Point3D B = lines.get("p2p3").getP0();
+        Point3D C = lines.get("p3p1").getP0();
+        ax = A.getX(); ay = A.getY(); az = A.getZ();
+        bx = B.getX(); by = B.getY(); bz = B.getZ();
+        cx = C.getX(); cy = C.getY(); cz = C.getZ();
+        e1x = bx - ax; e1y = by - ay; e1z = bz - az;
+        e2x = cx - ax; e2y = cy - ay; e2z = cz - az;
+        nx = normal.getX(); ny = normal.getY(); nz = normal.getZ();
     }
     public HashMap<String, Line> Lines() {
         return lines;
     }
 
+    // Same test as Intersect, for callers that only want the collision point
     @Override
     public Optional<Point3D> HitLoc(Ray ray) {
-        double x = normal.dotProduct(ray.getOrigin()); // n.p0
-        double y = normal.dotProduct(ray.getDirection()); // n.u
-        double t = (d - x) / y; // t = (d - n.p0) / n.u
-        Point3D col = ray.getOrigin().add(ray.getDirection().multiply(t)); // p = p0 + tu
-        if (RayHit(col)) {
-            return Optional.of(col);
-        }
-        return Optional.empty();
+        Hit hit = new Hit();
+        if (!Intersect(ray, hit)) return Optional.empty();
+        return Optional.of(new Point3D(ray.ox + ray.dx * hit.t, ray.oy + ray.dy * hit.t, ray.oz + ray.dz * hit.t));
     }
 
     @Override
@@ -87,25 +97,19 @@ public class Triangle implements Poly, Hittable {
         return new Triangle(ls, this.mat);
     }
 
+    // Whether col lies on the triangle: on its plane, with barycentrics of B and C inside the edges
     @Override
     public boolean RayHit(Point3D col) {
-        // https://math.stackexchange.com/questions/4322/check-whether-a-point-is-within-a-3d-triangle
-        Point3D A = lines.get("p1p2").getP0();
-        Point3D B = lines.get("p2p3").getP0();
-        Point3D C = lines.get("p3p1").getP0();
-        double area = ((B.subtract(A)).crossProduct(C.subtract(A))).magnitude();
-        Point3D PC = C.subtract(col);
-
-        Point3D PB = B.subtract(col);
-
-        Point3D PA = A.subtract(col);
-        double alpha = PB.crossProduct(PC).magnitude() / area;
-        double beta = PC.crossProduct(PA).magnitude() / area;
-        double gamma = PA.crossProduct(PB).magnitude() / area;
-        return  (alpha >= 0 && alpha <= 1) &&
-                (beta  >= 0 && beta  <= 1) &&
-                (gamma >= 0 && gamma <= 1) &&
-                (Math.abs(alpha + beta + gamma - 1) <= 0.01);
+        double px = col.getX() - ax, py = col.getY() - ay, pz = col.getZ() - az;
+        // (e1 x e2) . n, the normal may have been flipped so the sign is not fixed
+        double det = (e1y * e2z - e1z * e2y) * nx + (e1z * e2x - e1x * e2z) * ny + (e1x * e2y - e1y * e2x) * nz;
+        if (det == 0) return false;
+        double plane = px * nx + py * ny + pz * nz;
+        if (plane * plane > VectorMath.EPSILON * VectorMath.EPSILON * (nx * nx + ny * ny + nz * nz)) return false;
+        // u = ((P - A) x e2) . n / det, v = (e1 x (P - A)) . n / det
+        double u = ((py * e2z - pz * e2y) * nx + (pz * e2x - px * e2z) * ny + (px * e2y - py * e2x) * nz) / det;
+        double v = ((e1y * pz - e1z * py) * nx + (e1z * px - e1x * pz) * ny + (e1x * py - e1y * px) * nz) / det;
+        return u >= -VectorMath.EPSILON && v >= -VectorMath.EPSILON && u + v <= 1 + VectorMath.EPSILON;
     }
     public void SetMaterial(Material mat) {
         this.mat = mat;
@@ -137,25 +141,45 @@ public class Triangle implements Poly, Hittable {
         this.bbox = new AABB(min, max);
     }
 
+    // Moller-Trumbore, records the distance and the barycentrics of B and C
     @Override
-    public Optional<WorldObject.Collision> Collision(Ray ray) {
-        double x = normal.dotProduct(ray.getOrigin()); // n.p0
-        double y = normal.dotProduct(ray.getDirection()); // n.u
-        if (y == 0) return Optional.empty();
-        double t = (d - x) / y; // t = (d - n.p0) / n.u
-        Point3D col = ray.getOrigin().add(ray.getDirection().multiply(t)); // p = p0 + tu
-        if (RayHit(col)) {
-            boolean rayTowardsNormal = ray.getDirection().dotProduct(normal) < 0.0;
-            boolean collisionAfterOrigin = ray.getDirection().dotProduct(col.subtract(ray.getOrigin())) > 0.0;
-            double dist = VectorMath.Length2(col.subtract(ray.getOrigin()));
-            if (!ray.IsInsideMesh() && rayTowardsNormal && collisionAfterOrigin) {
-                return Optional.of(new WorldObject.Collision(col, mat, normal, dist));
-            }
-            else if (ray.IsInsideMesh() && !rayTowardsNormal && collisionAfterOrigin) {
-                return Optional.of(new WorldObject.Collision(col, mat, normal, dist));
-            }
-        }
-        return Optional.empty();
+    public boolean Intersect(Ray ray, Hit hit) {
+        // Rays outside a mesh only hit front faces, rays inside only back faces
+        double facing = nx * ray.dx + ny * ray.dy + nz * ray.dz;
+        if (facing == 0 || ray.IsInsideMesh() == (facing < 0)) return false;
+
+        double px = ray.dy * e2z - ray.dz * e2y; // p = u x e2
+        double py = ray.dz * e2x - ray.dx * e2z;
+        double pz = ray.dx * e2y - ray.dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0) return false;
+        double invDet = 1.0 / det;
+
+        double tx = ray.ox - ax, ty = ray.oy - ay, tz = ray.oz - az;
+        double u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < -VectorMath.EPSILON || u > 1 + VectorMath.EPSILON) return false;
+
+        double qx = ty * e1z - tz * e1y; // q = (p0 - A) x e1
+        double qy = tz * e1x - tx * e1z;
+        double qz = tx * e1y - ty * e1x;
+        double v = (ray.dx * qx + ray.dy * qy + ray.dz * qz) * invDet;
+        if (v < -VectorMath.EPSILON || u + v > 1 + VectorMath.EPSILON) return false;
+
+        // The direction is normalised, so t is the distance to the collision
+        double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        if (t <= hit.tMin || t >= hit.t) return false;
+        hit.t = t;
+        hit.u = u;
+        hit.v = v;
+        hit.object = this;
+        hit.set = null;
+        return true;
+    }
+
+    @Override
+    public WorldObject.Collision ToCollision(Ray ray, Hit hit) {
+        Point3D col = new Point3D(ray.ox + ray.dx * hit.t, ray.oy + ray.dy * hit.t, ray.oz + ray.dz * hit.t);
+        return new WorldObject.Collision(col, mat, normal, hit.t * hit.t);
     }
     @Override
     public Point3D GetCentre() {
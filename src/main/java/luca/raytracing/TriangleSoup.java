@@ -0,0 +1,218 @@
+package luca.raytracing;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact triangle store: vertex A, edges e1 = B - A and e2 = C - A, unit normals and material
+// indices live in flat primitive arrays instead of one object graph per triangle
+public class TriangleSoup implements PrimitiveSet {
+    private final int size;
+    private final double[] vertices;
+    private final double[] edges;
+    private final double[] normals;
+    private final int[] materialIndices;
+    private final Material[] materials;
+
+    TriangleSoup(List<Triangle> triangles) {
+        this.size = triangles.size();
+        this.vertices = new double[size * 3];
+        this.edges = new double[size * 6];
+        this.normals = new double[size * 3];
+        this.materialIndices = new int[size];
+        List<Material> materialList = new ArrayList<>();
+        Map<Material, Integer> materialIds = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Triangle t = triangles.get(i);
+            List<Point3D> points = t.GetPoints();
+            Point3D a = points.get(0);
+            Point3D e1 = points.get(1).subtract(a);
+            Point3D e2 = points.get(2).subtract(a);
+            Point3D n = t.GetNormal().normalize();
+            vertices[i * 3] = a.getX();
+            vertices[i * 3 + 1] = a.getY();
+            vertices[i * 3 + 2] = a.getZ();
+            edges[i * 6] = e1.getX();
+            edges[i * 6 + 1] = e1.getY();
+            edges[i * 6 + 2] = e1.getZ();
+            edges[i * 6 + 3] = e2.getX();
+            edges[i * 6 + 4] = e2.getY();
+            edges[i * 6 + 5] = e2.getZ();
+            normals[i * 3] = n.getX();
+            normals[i * 3 + 1] = n.getY();
+            normals[i * 3 + 2] = n.getZ();
+            Integer id = materialIds.get(t.getMat());
+            if (id == null) {
+                id = materialList.size();
+                materialIds.put(t.getMat(), id);
+                materialList.add(t.getMat());
+            }
+            materialIndices[i] = id;
+        }
+        this.materials = materialList.toArray(new Material[0]);
+    }
+
+    @Override
+    public int Size() {
+        return size;
+    }
+
+    public Material getMat(int prim) {
+        return materials[materialIndices[prim]];
+    }
+
+    public Point3D GetNormal(int prim) {
+        return new Point3D(normals[prim * 3], normals[prim * 3 + 1], normals[prim * 3 + 2]);
+    }
+
+    public double Area(int prim) {
+        int e = prim * 6;
+        double x = edges[e + 1] * edges[e + 5] - edges[e + 2] * edges[e + 4];
+        double y = edges[e + 2] * edges[e + 3] - edges[e] * edges[e + 5];
+        double z = edges[e] * edges[e + 4] - edges[e + 1] * edges[e + 3];
+        return Math.sqrt(x * x + y * y + z * z) / 2;
+    }
+
+    // The vertex and edges determine the bounds, centre and clipped bounds of a triangle
+    @Override
+    public long Hash(int prim, long h) {
+        for (int i = prim * 3; i < prim * 3 + 3; i++) h = BVHCache.Mix(h, vertices[i]);
+        for (int i = prim * 6; i < prim * 6 + 6; i++) h = BVHCache.Mix(h, edges[i]);
+        return h;
+    }
+
+    // Vertex 0, 1 or 2 of a triangle
+    public Point3D Vertex(int prim, int vertex) {
+        double x = vertices[prim * 3], y = vertices[prim * 3 + 1], z = vertices[prim * 3 + 2];
+        if (vertex > 0) {
+            int e = prim * 6 + (vertex - 1) * 3;
+            x += edges[e];
+            y += edges[e + 1];
+            z += edges[e + 2];
+        }
+        return new Point3D(x, y, z);
+    }
+
+    // Moves a triangle in place, the normal keeps the side it faced before the move
+    public void SetVertices(int prim, Point3D a, Point3D b, Point3D c) {
+        int v = prim * 3, e = prim * 6;
+        vertices[v] = a.getX();
+        vertices[v + 1] = a.getY();
+        vertices[v + 2] = a.getZ();
+        edges[e] = b.getX() - a.getX();
+        edges[e + 1] = b.getY() - a.getY();
+        edges[e + 2] = b.getZ() - a.getZ();
+        edges[e + 3] = c.getX() - a.getX();
+        edges[e + 4] = c.getY() - a.getY();
+        edges[e + 5] = c.getZ() - a.getZ();
+        double nx = edges[e + 1] * edges[e + 5] - edges[e + 2] * edges[e + 4];
+        double ny = edges[e + 2] * edges[e + 3] - edges[e] * edges[e + 5];
+        double nz = edges[e] * edges[e + 4] - edges[e + 1] * edges[e + 3];
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) return;
+        if (nx * normals[v] + ny * normals[v + 1] + nz * normals[v + 2] < 0) length = -length;
+        normals[v] = nx / length;
+        normals[v + 1] = ny / length;
+        normals[v + 2] = nz / length;
+    }
+
+    @Override
+    public AABB Bounds(int prim) {
+        Point3D a = Vertex(prim, 0), b = Vertex(prim, 1), c = Vertex(prim, 2);
+        return new AABB(
+                new Point3D(Math.min(a.getX(), Math.min(b.getX(), c.getX())),
+                        Math.min(a.getY(), Math.min(b.getY(), c.getY())),
+                        Math.min(a.getZ(), Math.min(b.getZ(), c.getZ()))),
+                new Point3D(Math.max(a.getX(), Math.max(b.getX(), c.getX())),
+                        Math.max(a.getY(), Math.max(b.getY(), c.getY())),
+                        Math.max(a.getZ(), Math.max(b.getZ(), c.getZ()))));
+    }
+
+    // Coordinate on axis of vertex 0, 1 or 2
+    private double Coordinate(int prim, int vertex, int axis) {
+        double c = vertices[prim * 3 + axis];
+        return vertex == 0 ? c : c + edges[prim * 6 + (vertex - 1) * 3 + axis];
+    }
+
+    // Exact bounds of the triangle clipped to the slab: the vertices inside it plus the points
+    // where the edges cross its planes
+    @Override
+    public void ClipBounds(int prim, int axis, double lo, double hi, double[] out, int o) {
+        BVHBuildNode.SetEmpty(out, o);
+        for (int i = 0; i < 3; i++) {
+            int j = (i + 1) % 3;
+            double from = Coordinate(prim, i, axis), to = Coordinate(prim, j, axis);
+            if (from >= lo && from <= hi) {
+                for (int a = 0; a < 3; a++) Include(out, o, a, Coordinate(prim, i, a));
+            }
+            for (int side = 0; side < 2; side++) {
+                double plane = side == 0 ? lo : hi;
+                if ((from - plane) * (to - plane) >= 0) continue;
+                double t = (plane - from) / (to - from);
+                for (int a = 0; a < 3; a++) {
+                    double c = a == axis ? plane : Coordinate(prim, i, a) + t * (Coordinate(prim, j, a) - Coordinate(prim, i, a));
+                    Include(out, o, a, c);
+                }
+            }
+        }
+    }
+
+    private static void Include(double[] bounds, int o, int axis, double c) {
+        bounds[o + axis] = Math.min(bounds[o + axis], c);
+        bounds[o + axis + 3] = Math.max(bounds[o + axis + 3], c);
+    }
+
+    @Override
+    public Point3D Centre(int prim) {
+        int v = prim * 3, e = prim * 6;
+        return new Point3D(
+                vertices[v] + (edges[e] + edges[e + 3]) / 3,
+                vertices[v + 1] + (edges[e + 1] + edges[e + 4]) / 3,
+                vertices[v + 2] + (edges[e + 2] + edges[e + 5]) / 3);
+    }
+
+    // Moller-Trumbore, same kernel as Triangle.Intersect on the flat arrays
+    @Override
+    public boolean Intersect(int prim, Ray ray, Hit hit) {
+        int v = prim * 3, e = prim * 6;
+        // Rays outside a mesh only hit front faces, rays inside only back faces
+        double facing = normals[v] * ray.dx + normals[v + 1] * ray.dy + normals[v + 2] * ray.dz;
+        if (facing == 0 || ray.IsInsideMesh() == (facing < 0)) return false;
+
+        double e1x = edges[e], e1y = edges[e + 1], e1z = edges[e + 2];
+        double e2x = edges[e + 3], e2y = edges[e + 4], e2z = edges[e + 5];
+        double px = ray.dy * e2z - ray.dz * e2y; // p = u x e2
+        double py = ray.dz * e2x - ray.dx * e2z;
+        double pz = ray.dx * e2y - ray.dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0) return false;
+        double invDet = 1.0 / det;
+
+        double tx = ray.ox - vertices[v], ty = ray.oy - vertices[v + 1], tz = ray.oz - vertices[v + 2];
+        double u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < -VectorMath.EPSILON || u > 1 + VectorMath.EPSILON) return false;
+
+        double qx = ty * e1z - tz * e1y; // q = (p0 - A) x e1
+        double qy = tz * e1x - tx * e1z;
+        double qz = tx * e1y - ty * e1x;
+        double w = (ray.dx * qx + ray.dy * qy + ray.dz * qz) * invDet;
+        if (w < -VectorMath.EPSILON || u + w > 1 + VectorMath.EPSILON) return false;
+
+        double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        if (t <= hit.tMin || t >= hit.t) return false;
+        hit.t = t;
+        hit.u = u;
+        hit.v = w;
+        hit.object = null;
+        hit.set = this;
+        hit.prim = prim;
+        return true;
+    }
+
+    @Override
+    public WorldObject.Collision ToCollision(int prim, Ray ray, Hit hit) {
+        Point3D col = new Point3D(ray.ox + ray.dx * hit.t, ray.oy + ray.dy * hit.t, ray.oz + ray.dz * hit.t);
+        return new WorldObject.Collision(col, getMat(prim), GetNormal(prim), hit.t * hit.t, prim);
+    }
+}
@@ -0,0 +1,214 @@
+package luca.raytracing;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// Breadth first alternative to RayTracer.Shade. Paths are queued with their primary
+// collision, then every live path advances one bounce per pass: the pass intersects all the
+// rays and groups the paths into misses, emitters and one group per material class. Each group
+// is shaded as a batch by its own kernel, which runs the steps of RayTracer.Interact one stage
+// at a time over the whole batch, and the paths that continue are compacted into the next pass.
+// A path's sample is added to the frame buffer when it ends.
+// Not thread safe, each worker thread keeps its own.
+public class WavefrontIntegrator {
+    private final RayTracer tracer;
+    private static final int MISSES = 0;
+    private static final int EMITTERS = 1;
+    // Material class to group, the classes follow the misses and emitters
+    private final Map<Class<?>, Integer> groups = new IdentityHashMap<>();
+    private int size = 0;
+    private int[] pixelX = new int[1024];
+    private int[] pixelY = new int[1024];
+    private Ray[] rays = new Ray[1024];
+    private WorldObject.Collision[] collisions = new WorldObject.Collision[1024];
+    // Product of the bounce weights so far, r g b per path
+    private double[] throughput = new double[1024 * 3];
+    // Light gathered so far, r g b per path
+    private double[] radiance = new double[1024 * 3];
+    // Density the current ray was sampled with, for RayTracer.EmissionWeight
+    private double[] pdf = new double[1024];
+    // Parked Sampler state of each path, resumed in sampler while the path is shaded
+    private long[] streams = new long[1024];
+    // Shading frame at the current collision, found while grouping and kept for the kernels
+    private Basis[] bases = new Basis[1024];
+    private Direction[] outgoing = new Direction[1024];
+    // Radiance of a path's collision when it is on an emitter
+    private Point3D[] emission = new Point3D[1024];
+    // Whether the lights were sampled at a path's collision
+    private boolean[] sampledLights = new boolean[1024];
+    private final Sampler sampler = new Sampler();
+    // Indices of the live paths, and the same paths ordered by group
+    private int[] live = new int[1024];
+    private int[] sorted = new int[1024];
+    private int[] keys = new int[1024];
+    // End of each group in sorted after Partition, grown with the number of groups
+    private int[] ends = new int[8];
+
+    WavefrontIntegrator(RayTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    // Queues one sample of pixel (x, y) whose camera ray has already been intersected. The path
+    // continues the stream sampler was seeded with for this sample.
+    public void Add(int x, int y, Ray ray, Optional<WorldObject.Collision> primary, Sampler sampler) {
+        if (size == rays.length) Grow();
+        pixelX[size] = x;
+        pixelY[size] = y;
+        rays[size] = ray;
+        collisions[size] = primary.orElse(null);
+        throughput[size * 3] = throughput[size * 3 + 1] = throughput[size * 3 + 2] = 1;
+        radiance[size * 3] = radiance[size * 3 + 1] = radiance[size * 3 + 2] = 0;
+        pdf[size] = 0;
+        streams[size] = sampler.getState();
+        live[size] = size;
+        size++;
+    }
+
+    // Traces every queued path to the end and adds the samples to frameBuffer
+    public void Run(FrameBuffer frameBuffer) {
+        int liveCount = size;
+        for (int depth = 0; liveCount > 0; depth++) {
+            if (depth > tracer.getMaxDepth()) {
+                for (int i = 0; i < liveCount; i++) Finish(live[i], Point3D.ZERO, frameBuffer);
+                break;
+            }
+            // Intersect, the primary collisions were found by the caller
+            if (depth > 0) {
+                for (int i = 0; i < liveCount; i++) {
+                    int p = live[i];
+                    collisions[p] = tracer.rayCollisionBVH(rays[p]).orElse(null);
+                }
+            }
+            int groupCount = Partition(liveCount);
+            // Shade group by group, paths that continue are compacted back into live
+            int next = 0;
+            for (int g = 0; g < groupCount; g++) {
+                int from = g == 0 ? 0 : ends[g - 1];
+                int to = ends[g];
+                if (from == to) continue;
+                if (g == MISSES) ShadeMisses(from, to, frameBuffer);
+                else if (g == EMITTERS) ShadeEmitters(from, to, frameBuffer);
+                else next = ShadeSurfaces(from, to, depth, next, frameBuffer);
+            }
+            liveCount = next;
+        }
+        size = 0;
+    }
+
+    // Counting sort of the live paths into sorted by group, returns the number of groups. The
+    // shading frame and emission of every collision are found here as they decide the group.
+    private int Partition(int liveCount) {
+        for (int i = 0; i < liveCount; i++) {
+            int p = live[i];
+            WorldObject.Collision col = collisions[p];
+            if (col == null) {
+                keys[i] = MISSES;
+                continue;
+            }
+            bases[p] = new Basis(col.normal);
+            outgoing[p] = new Direction(rays[p].getDirection().multiply(-1), bases[p]);
+            emission[p] = tracer.Emission(col, outgoing[p], bases[p]);
+            keys[i] = emission[p] != null ? EMITTERS : groups.computeIfAbsent(col.mat.getClass(), c -> groups.size() + 2);
+        }
+        int groupCount = groups.size() + 2;
+        if (ends.length < groupCount) ends = new int[groupCount * 2];
+        Arrays.fill(ends, 0, groupCount, 0);
+        for (int i = 0; i < liveCount; i++) ends[keys[i]]++;
+        // Start of each group, moved on to its end as the paths are placed
+        for (int g = 0, start = 0; g < groupCount; g++) {
+            int count = ends[g];
+            ends[g] = start;
+            start += count;
+        }
+        for (int i = 0; i < liveCount; i++) sorted[ends[keys[i]]++] = live[i];
+        return groupCount;
+    }
+
+    // Paths in sorted[from, to) that left the scene
+    private void ShadeMisses(int from, int to, FrameBuffer frameBuffer) {
+        for (int i = from; i < to; i++) Finish(sorted[i], RayTracer.BACKGROUND, frameBuffer);
+    }
+
+    // Paths in sorted[from, to) that reached an emitter, weighted against the light samples
+    private void ShadeEmitters(int from, int to, FrameBuffer frameBuffer) {
+        for (int i = from; i < to; i++) {
+            int p = sorted[i];
+            Finish(p, emission[p].multiply(tracer.EmissionWeight(pdf[p], rays[p], collisions[p])), frameBuffer);
+        }
+    }
+
+    // Paths in sorted[from, to) on surfaces of one material class. The batch gathers direct light
+    // first, then samples the BRDF, weighs the survivors and appends them to live from next.
+    // Returns the new end of live.
+    private int ShadeSurfaces(int from, int to, int depth, int next, FrameBuffer frameBuffer) {
+        for (int i = from; i < to; i++) {
+            int p = sorted[i];
+            WorldObject.Collision col = collisions[p];
+            sampledLights[p] = tracer.SamplesLights(rays[p], col.mat);
+            if (!sampledLights[p]) continue;
+            sampler.setState(streams[p]);
+            Point3D direct = tracer.SampleLights(col, col.mat, outgoing[p], bases[p], sampler);
+            streams[p] = sampler.getState();
+            radiance[p * 3] += throughput[p * 3] * direct.getX();
+            radiance[p * 3 + 1] += throughput[p * 3 + 1] * direct.getY();
+            radiance[p * 3 + 2] += throughput[p * 3 + 2] * direct.getZ();
+        }
+        for (int i = from; i < to; i++) {
+            int p = sorted[i];
+            sampler.setState(streams[p]);
+            RayTracer.Interaction interaction = tracer.Scatter(rays[p], collisions[p], outgoing[p], bases[p],
+                    sampledLights[p], Point3D.ZERO, sampler);
+            pdf[p] = interaction.pdf;
+            throughput[p * 3] *= interaction.weight.getX();
+            throughput[p * 3 + 1] *= interaction.weight.getY();
+            throughput[p * 3 + 2] *= interaction.weight.getZ();
+            double survival = tracer.Survival(throughput[p * 3], throughput[p * 3 + 1], throughput[p * 3 + 2], depth);
+            if (survival < 1) {
+                if (sampler.NextDouble() >= survival) {
+                    Finish(p, Point3D.ZERO, frameBuffer);
+                    continue;
+                }
+                for (int c = 0; c < 3; c++) throughput[p * 3 + c] /= survival;
+            }
+            streams[p] = sampler.getState();
+            rays[p] = interaction.next;
+            collisions[p] = null;
+            live[next++] = p;
+        }
+        return next;
+    }
+
+    // Adds the gathered light plus the light the path ended on to the pixel
+    private void Finish(int p, Point3D last, FrameBuffer frameBuffer) {
+        frameBuffer.AddSample(pixelX[p], pixelY[p], new Point3D(
+                radiance[p * 3] + throughput[p * 3] * last.getX(),
+                radiance[p * 3 + 1] + throughput[p * 3 + 1] * last.getY(),
+                radiance[p * 3 + 2] + throughput[p * 3 + 2] * last.getZ()));
+        rays[p] = null;
+        collisions[p] = null;
+        bases[p] = null;
+        outgoing[p] = null;
+        emission[p] = null;
+    }
+
+    private void Grow() {
+        int capacity = rays.length * 2;
+        pixelX = Arrays.copyOf(pixelX, capacity);
+        pixelY = Arrays.copyOf(pixelY, capacity);
+        rays = Arrays.copyOf(rays, capacity);
+        collisions = Arrays.copyOf(collisions, capacity);
+        throughput = Arrays.copyOf(throughput, capacity * 3);
+        radiance = Arrays.copyOf(radiance, capacity * 3);
+        pdf = Arrays.copyOf(pdf, capacity);
+        streams = Arrays.copyOf(streams, capacity);
+        bases = Arrays.copyOf(bases, capacity);
+        outgoing = Arrays.copyOf(outgoing, capacity);
+        emission = Arrays.copyOf(emission, capacity);
+        sampledLights = Arrays.copyOf(sampledLights, capacity);
+        live = Arrays.copyOf(live, capacity);
+        sorted = Arrays.copyOf(sorted, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+    }
+}
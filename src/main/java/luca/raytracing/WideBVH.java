@@ -0,0 +1,188 @@
+package luca.raytracing;
+
+import java.util.Arrays;
+
+// 4-wide BVH (QBVH) collapsed from a binary FlatBVH: each node keeps up to four children, found
+// by repeatedly opening the largest interior child, with their bounds laid out as lanes so one
+// slab test covers all four. The test runs on the Vector API when the vector build profile has
+// compiled VectorWideSlab and jdk.incubator.vector is available, otherwise on a scalar loop.
+public class WideBVH {
+    private static final int WIDTH = 4;
+    // Bounds of an empty lane, every slab test against it misses
+    private static final double EMPTY = Double.POSITIVE_INFINITY;
+    private static final WideSlab VECTOR_SLAB = LoadVectorSlab();
+    static final WideSlab SLAB = VECTOR_SLAB != null ? VECTOR_SLAB : WideBVH::ScalarEntry;
+
+    private final PrimitiveSet set;
+    private final int[] primIndices;
+    // 24 doubles per node: min x, y, z then max x, y, z, each as four lanes
+    private double[] bounds = new double[64 * 6 * WIDTH];
+    // Per lane: primitive count of a leaf, 0 for an interior child, -1 for an empty lane
+    private int[] counts = new int[64 * WIDTH];
+    // Per lane: first primIndices entry of a leaf or the node index of an interior child
+    private int[] children = new int[64 * WIDTH];
+    private int nodeCount = 0;
+    private int maxDepth = 0;
+
+    WideBVH(FlatBVH binary, PrimitiveSet set) {
+        this.set = set;
+        this.primIndices = binary.PrimIndices();
+        if (binary.NodeCount() > 0) Collapse(binary, 0, 1);
+        bounds = Arrays.copyOf(bounds, nodeCount * 6 * WIDTH);
+        counts = Arrays.copyOf(counts, nodeCount * WIDTH);
+        children = Arrays.copyOf(children, nodeCount * WIDTH);
+    }
+
+    private static WideSlab LoadVectorSlab() {
+        try {
+            return (WideSlab) Class.forName("luca.raytracing.VectorWideSlab").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Built without the vector profile, or run without --add-modules jdk.incubator.vector
+            return null;
+        }
+    }
+
+    public static boolean Vectorised() {
+        return VECTOR_SLAB != null;
+    }
+
+    static void ScalarEntry(double[] bounds, int b, Ray ray, double tMin, double tMax, double[] out) {
+        for (int lane = 0; lane < WIDTH; lane++) {
+            int l = b + lane;
+            out[lane] = AABB.SlabEntry(bounds[l], bounds[l + 4], bounds[l + 8], bounds[l + 12], bounds[l + 16],
+                    bounds[l + 20], ray, tMin, tMax);
+        }
+    }
+
+    public int NodeCount() {
+        return nodeCount;
+    }
+
+    // Each level pushes at most three children beyond the one it replaces
+    public int StackSize() {
+        return (WIDTH - 1) * maxDepth + 1;
+    }
+
+    // Returns the index of the emitted node
+    private int Collapse(FlatBVH binary, int root, int depth) {
+        maxDepth = Math.max(maxDepth, depth);
+        int index = nodeCount++;
+        if (nodeCount * WIDTH > counts.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            counts = Arrays.copyOf(counts, counts.length * 2);
+            children = Arrays.copyOf(children, children.length * 2);
+        }
+        int[] lanes = new int[WIDTH];
+        int laneCount = 1;
+        lanes[0] = root;
+        // Open the interior lane with the largest surface area until all four lanes are used
+        while (laneCount < WIDTH) {
+            int open = -1;
+            for (int i = 0; i < laneCount; i++) {
+                if (binary.PrimCount(lanes[i]) == 0
+                        && (open == -1 || binary.NodeArea(lanes[i]) > binary.NodeArea(lanes[open]))) {
+                    open = i;
+                }
+            }
+            if (open == -1) break;
+            int node = lanes[open];
+            lanes[open] = node + 1;
+            lanes[laneCount++] = binary.Offset(node);
+        }
+
+        int b = index * 6 * WIDTH;
+        for (int lane = 0; lane < WIDTH; lane++) {
+            if (lane >= laneCount) {
+                for (int i = 0; i < 6; i++) bounds[b + i * WIDTH + lane] = EMPTY;
+                counts[index * WIDTH + lane] = -1;
+                continue;
+            }
+            int node = lanes[lane];
+            for (int i = 0; i < 6; i++) bounds[b + i * WIDTH + lane] = binary.NodeBound(node, i);
+            int count = binary.PrimCount(node);
+            counts[index * WIDTH + lane] = count;
+            if (count > 0) {
+                children[index * WIDTH + lane] = binary.Offset(node);
+            } else {
+                // Collapsing may reallocate children, so it must finish before the store
+                int child = Collapse(binary, node, depth + 1);
+                children[index * WIDTH + lane] = child;
+            }
+        }
+        return index;
+    }
+
+    // Closest hit. Leaf lanes are intersected nearest first as soon as their node is reached,
+    // interior lanes are pushed so the nearest is visited next.
+    public boolean Intersect(Ray ray, Hit hit) {
+        if (nodeCount == 0) return false;
+        if (hit.stack.length < StackSize()) hit.stack = new int[StackSize()];
+        int[] stack = hit.stack;
+        double[] entry = hit.lanes;
+        int[] order = hit.laneOrder;
+        boolean found = false;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            SLAB.Entry(bounds, node * 6 * WIDTH, ray, 0, hit.t, entry);
+            // Insertion sort of the lanes that were hit by entry distance
+            int hits = 0;
+            for (int lane = 0; lane < WIDTH; lane++) {
+                if (entry[lane] == Double.POSITIVE_INFINITY) continue;
+                int i = hits++;
+                while (i > 0 && entry[order[i - 1]] > entry[lane]) {
+                    order[i] = order[i - 1];
+                    i--;
+                }
+                order[i] = lane;
+            }
+            for (int i = 0; i < hits; i++) {
+                int lane = node * WIDTH + order[i];
+                int count = counts[lane];
+                if (count == 0 || entry[order[i]] >= hit.t) continue;
+                int first = children[lane];
+                for (int p = first; p < first + count; p++) {
+                    found |= set.Intersect(primIndices[p], ray, hit);
+                }
+            }
+            for (int i = hits - 1; i >= 0; i--) {
+                int lane = node * WIDTH + order[i];
+                if (counts[lane] == 0 && entry[order[i]] < hit.t) stack[sp++] = children[lane];
+            }
+        }
+        return found;
+    }
+
+    // Any hit on [tMin, tMax]. Lanes are taken in storage order since the first primitive hit
+    // ends the query, there is no closer hit to find first.
+    public boolean Occluded(Ray ray, double tMin, double tMax, Hit hit) {
+        hit.Reset();
+        hit.tMin = tMin;
+        hit.t = tMax;
+        if (nodeCount == 0) return false;
+        if (hit.stack.length < StackSize()) hit.stack = new int[StackSize()];
+        int[] stack = hit.stack;
+        double[] entry = hit.lanes;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            SLAB.Entry(bounds, node * 6 * WIDTH, ray, tMin, tMax, entry);
+            for (int lane = 0; lane < WIDTH; lane++) {
+                if (entry[lane] == Double.POSITIVE_INFINITY) continue;
+                int index = node * WIDTH + lane;
+                int count = counts[index];
+                if (count == 0) {
+                    stack[sp++] = children[index];
+                    continue;
+                }
+                int first = children[index];
+                for (int p = first; p < first + count; p++) {
+                    if (set.Occluded(primIndices[p], ray, hit)) return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,8 @@
+package luca.raytracing;
+
+// Slab test of one ray against the four child boxes of a WideBVH node. Bounds are stored from b
+// as four min x lanes, then min y, min z, max x, max y and max z. Writes each child's entry
+// distance within [tMin, tMax] to out, infinity if the ray misses it.
+interface WideSlab {
+    void Entry(double[] bounds, int b, Ray ray, double tMin, double tMax, double[] out);
+}
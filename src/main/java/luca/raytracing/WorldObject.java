@@ -35,11 +35,17 @@ public abstract class WorldObject {
         public final Material mat;
         public final Point3D normal;
         public final double dist;
+        // Index of the scene triangle that was hit, -1 for spheres, instances and other objects
+        public final int prim;
         public Collision(Point3D point, Material mat, Point3D normal, double dist) {
+            this(point, mat, normal, dist, -1);
+        }
+        public Collision(Point3D point, Material mat, Point3D normal, double dist, int prim) {
             this.point = point;
             this.mat = mat;
             this.normal = normal;
             this.dist = dist;
+            this.prim = prim;
         }
         Collision() {
             this(Point3D.ZERO, Material.EMPTY, Point3D.ZERO, 0.0);
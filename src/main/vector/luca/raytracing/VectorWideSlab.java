@@ -0,0 +1,33 @@
+package luca.raytracing;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.GT;
+import static jdk.incubator.vector.VectorOperators.LT;
+
+// WideSlab on the Vector API, the four lanes of a WideBVH node in one 256 bit vector. Only
+// compiled by the vector profile, WideBVH loads it by name and falls back to the scalar loop.
+// Selects replace min and max so NaN lanes keep the current interval, as in AABB.SlabEntry.
+class VectorWideSlab implements WideSlab {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+    @Override
+    public void Entry(double[] bounds, int b, Ray ray, double tMin, double tMax, double[] out) {
+        DoubleVector tNear = DoubleVector.broadcast(SPECIES, tMin);
+        DoubleVector tFar = DoubleVector.broadcast(SPECIES, tMax);
+        for (int axis = 0; axis < 3; axis++) {
+            double origin = axis == 0 ? ray.ox : axis == 1 ? ray.oy : ray.oz;
+            double inverse = axis == 0 ? ray.ix : axis == 1 ? ray.iy : ray.iz;
+            DoubleVector t1 = DoubleVector.fromArray(SPECIES, bounds, b + axis * 4).sub(origin).mul(inverse);
+            DoubleVector t2 = DoubleVector.fromArray(SPECIES, bounds, b + 12 + axis * 4).sub(origin).mul(inverse);
+            VectorMask<Double> ordered = t1.compare(LT, t2);
+            DoubleVector near = t2.blend(t1, ordered);
+            DoubleVector far = t1.blend(t2, ordered);
+            tNear = tNear.blend(near, near.compare(GT, tNear));
+            tFar = tFar.blend(far, far.compare(LT, tFar));
+        }
+        tNear.blend(Double.POSITIVE_INFINITY, tNear.compare(GT, tFar)).intoArray(out, 0);
+    }
+}
@@ -0,0 +1,78 @@
+package luca.raytracing;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class BVHCacheTest {
+    private static final Material WHITE = new Lambertian(new Point3D(1, 1, 1), 0.75);
+    private static final BVHBuilder.Settings SAH = new BVHBuilder.Settings(BVHBuilder.Type.SAH);
+
+    private static TriangleSoup RandomSoup(int count) {
+        Random random = new Random(5);
+        List<Triangle> triangles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Point3D a = new Point3D(random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+            triangles.add(new Triangle(WHITE, a, a.add(new Point3D(random.nextDouble(), 0, 0)),
+                    a.add(new Point3D(0, random.nextDouble(), random.nextDouble()))));
+        }
+        return new TriangleSoup(triangles);
+    }
+
+    private static Path CacheFile(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(".cache")).findFirst().orElseThrow();
+        }
+    }
+
+    @Test
+    void DamagedFilesAreRebuilt() throws IOException {
+        TriangleSoup soup = RandomSoup(1000);
+        Path directory = Files.createTempDirectory("bvh-cache");
+        BVHCache cache = new BVHCache(directory);
+        int nodes = cache.LoadOrBuild(SAH, soup).NodeCount();
+        Path file = CacheFile(directory);
+        byte[] data = Files.readAllBytes(file);
+
+        // Truncated
+        Files.write(file, Arrays.copyOf(data, data.length / 2));
+        assertEquals(nodes, cache.LoadOrBuild(SAH, soup).NodeCount());
+        // Node count past the end of the file
+        byte[] huge = data.clone();
+        ByteBuffer.wrap(huge).putInt(16, Integer.MAX_VALUE);
+        Files.write(file, huge);
+        assertEquals(nodes, cache.LoadOrBuild(SAH, soup).NodeCount());
+        // Child offsets pointing back up the tree
+        byte[] cyclic = data.clone();
+        ByteBuffer view = ByteBuffer.wrap(cyclic);
+        int offsets = 16 + 3 * Integer.BYTES + nodes * 6 * Double.BYTES;
+        view.putInt(offsets, 0);
+        Files.write(file, cyclic);
+        assertEquals(nodes, cache.LoadOrBuild(SAH, soup).NodeCount());
+        // The rebuilt tree replaced the damaged file
+        assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    @Test
+    void KeyCoversGeometryAndSettings() {
+        Point3D a = new Point3D(0, 0, 0), b = new Point3D(1, 0, 0), c = new Point3D(0, 1, 0), d = new Point3D(1, 1, 0);
+        // Same bounding box, different triangle
+        TriangleSoup first = new TriangleSoup(List.of(new Triangle(WHITE, a, b, c)));
+        TriangleSoup second = new TriangleSoup(List.of(new Triangle(WHITE, d, b, c)));
+        assertNotEquals(BVHCache.Key(SAH, first), BVHCache.Key(SAH, second));
+        BVHBuilder.Settings tight = new BVHBuilder.Settings(BVHBuilder.Type.SBVH, 0.1);
+        BVHBuilder.Settings loose = new BVHBuilder.Settings(BVHBuilder.Type.SBVH, 0.5);
+        assertNotEquals(BVHCache.Key(tight, first), BVHCache.Key(loose, first));
+    }
+}
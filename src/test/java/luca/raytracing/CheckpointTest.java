@@ -0,0 +1,67 @@
+package luca.raytracing;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointTest {
+    private static final Point3D ONE = new Point3D(1, 1, 1);
+
+    @Test
+    void SnapshotsHoldWholeSamples() throws InterruptedException {
+        int width = 64, height = 48;
+        FrameBuffer frameBuffer = new FrameBuffer(width, height);
+        TileScheduler scheduler = new TileScheduler(width, height, 16, 4);
+        scheduler.Start((tile, firstSample, samples) -> {
+            for (int s = 0; s < samples; s++) {
+                for (int y = tile.y0; y < tile.y1; y++) {
+                    for (int x = tile.x0; x < tile.x1; x++) frameBuffer.AddSample(x, y, ONE);
+                }
+            }
+        }, 0, 20000, 4);
+        // A claim adds 4 samples to every pixel of its 16x16 tile, so a tile copied mid-claim
+        // would show pixels with different counts
+        for (int i = 0; i < 50; i++) {
+            FrameBuffer snapshot = scheduler.Snapshot(frameBuffer);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int count = snapshot.SampleCount(x, y);
+                    assertEquals(snapshot.SampleCount(x - x % 16, y - y % 16), count, "pixel " + x + "," + y);
+                    assertEquals(0, count % 4);
+                }
+            }
+        }
+        assertTrue(scheduler.AwaitCompletion(1, TimeUnit.MINUTES));
+        scheduler.Shutdown();
+    }
+
+    @Test
+    void TruncatedFilesAreRejected() throws IOException {
+        Path path = Files.createTempFile("checkpoint", ".ckpt");
+        try {
+            Checkpoint.Save(path, 3, 7, new FrameBuffer(4, 4));
+            Checkpoint.State state = Checkpoint.Load(path);
+            assertEquals(3, state.completedSamples);
+            byte[] bytes = Files.readAllBytes(path);
+            for (int length : new int[]{0, 10, bytes.length - 1}) {
+                Files.write(path, Arrays.copyOf(bytes, length));
+                boolean rejected = false;
+                try {
+                    Checkpoint.Load(path);
+                } catch (IOException e) {
+                    rejected = true;
+                }
+                assertTrue(rejected, length + " byte checkpoint should be rejected");
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package luca.raytracing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EmissionWeightTest {
+    private static final Material WHITE = new Lambertian(new Point3D(1, 1, 1), 0.75);
+    private static final Material EMITTER = new Lambertian(new Point3D(1, 1, 1), new Point3D(8, 8, 8));
+    private static final int SAMPLES = 40000;
+
+    // A floor lit by an emissive sphere, optionally with a small emissive triangle hidden below
+    // the floor so the lights are sampled at every floor collision without ever being visible
+    private static RayTracer Tracer(boolean hiddenLight) {
+        List<Triangle> triangles = new ArrayList<>();
+        Point3D a = new Point3D(-50, 0, -50), b = new Point3D(50, 0, -50);
+        Point3D c = new Point3D(50, 0, 50), d = new Point3D(-50, 0, 50);
+        triangles.add(new Triangle(WHITE, a, c, b));
+        triangles.add(new Triangle(WHITE, a, d, c));
+        if (hiddenLight) {
+            triangles.add(new Triangle(EMITTER, new Point3D(0, -1, 0), new Point3D(0.1, -1, 0), new Point3D(0, -1, 0.1)));
+        }
+        MeshObject mesh = new MeshObject(WHITE, Point3D.ZERO) {
+        };
+        mesh.mesh = triangles;
+        List<Sphere> spheres = Collections.singletonList(new Sphere(EMITTER, new Point3D(0, 2, 0), 1));
+        return new RayTracer(Collections.singletonList(mesh), spheres, new ArrayList<>(),
+                new BVHBuilder.Settings(BVHBuilder.Type.SAH), null, false, 5);
+    }
+
+    // Mean radiance leaving the floor below the sphere
+    private static double Radiance(RayTracer tracer) {
+        Sampler sampler = new Sampler(11);
+        Ray ray = new Ray(new Point3D(0, 0.5, 0), new Point3D(0, -1, 0), false);
+        double total = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            total += tracer.Shade(ray, tracer.rayCollisionBVH(ray), 0, sampler).getX();
+        }
+        return total / SAMPLES;
+    }
+
+    @Test
+    void UnsampledEmittersKeepTheirEnergy() {
+        double brdfOnly = Radiance(Tracer(false));
+        double withLights = Radiance(Tracer(true));
+        // The sphere covers a quarter of the cosine weighted hemisphere: 0.75 * (8 / 4 + 0.1 * 3 / 4)
+        assertEquals(1.556, brdfOnly, 0.05);
+        assertEquals(brdfOnly, withLights, 0.05);
+    }
+}
@@ -0,0 +1,54 @@
+package luca.raytracing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefitTest {
+    private static final Material WHITE = new Lambertian(new Point3D(1, 1, 1), 0.75);
+
+    // Long thin diagonal triangles, the case spatial splits are made for
+    private static List<MeshObject> ThinTriangles() {
+        Random random = new Random(3);
+        List<Triangle> triangles = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Point3D a = new Point3D(random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+            Point3D b = a.add(new Point3D(8, 8, 8));
+            triangles.add(new Triangle(WHITE, a, b, a.add(new Point3D(0.05, 0, 0))));
+        }
+        MeshObject mesh = new MeshObject(WHITE, Point3D.ZERO) {
+        };
+        mesh.mesh = triangles;
+        return Collections.singletonList(mesh);
+    }
+
+    private static RayTracer Tracer(BVHBuilder.Type type) {
+        return new RayTracer(ThinTriangles(), new ArrayList<>(), new ArrayList<>(), new BVHBuilder.Settings(type),
+                null, false, 5);
+    }
+
+    @Test
+    void NoOpRefitKeepsBuildCost() {
+        for (BVHBuilder.Type type : BVHBuilder.Type.values()) {
+            RayTracer tracer = Tracer(type);
+            tracer.Refit();
+            assertEquals(1.0, tracer.getBVH().Degradation(), 0.01, type + " degraded on a no-op refit");
+        }
+    }
+
+    @Test
+    void SpatialSplitsSurviveRefit() {
+        RayTracer tracer = Tracer(BVHBuilder.Type.SBVH);
+        assertTrue(tracer.getBVH().HasSplitReferences(), "scene should produce spatial splits");
+        double cost = tracer.getBVH().Cost();
+        tracer.Refit();
+        assertTrue(tracer.getBVH().HasSplitReferences());
+        assertEquals(cost, tracer.getBVH().Cost(), cost * 1e-9);
+    }
+}